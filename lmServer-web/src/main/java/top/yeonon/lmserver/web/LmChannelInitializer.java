@@ -0,0 +1,281 @@
+package top.yeonon.lmserver.web;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.HttpMessage;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpServerUpgradeHandler;
+import io.netty.handler.codec.http2.CleartextHttp2ServerUpgradeHandler;
+import io.netty.handler.codec.http2.Http2CodecUtil;
+import io.netty.handler.codec.http2.Http2FrameCodec;
+import io.netty.handler.codec.http2.Http2FrameCodecBuilder;
+import io.netty.handler.codec.http2.Http2MultiplexHandler;
+import io.netty.handler.codec.http2.Http2SecurityUtil;
+import io.netty.handler.codec.http2.Http2ServerUpgradeCodec;
+import io.netty.handler.codec.http2.Http2Settings;
+import io.netty.handler.codec.http2.Http2StreamFrameToHttpObjectCodec;
+import io.netty.handler.flush.FlushConsolidationHandler;
+import io.netty.handler.ssl.ApplicationProtocolConfig;
+import io.netty.handler.ssl.ApplicationProtocolNames;
+import io.netty.handler.ssl.ApplicationProtocolNegotiationHandler;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.SupportedCipherSuiteFilter;
+import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.AsciiString;
+import io.netty.util.ReferenceCountUtil;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.core.exception.EnvironmentException;
+import top.yeonon.lmserver.web.handler.*;
+import top.yeonon.lmserver.web.http.Compression;
+import top.yeonon.lmserver.web.process.WebBeanProcessor;
+
+import java.io.File;
+
+/**
+ * 连接的Pipeline初始化
+ *
+ * 1. 没有开启TLS和HTTP/2的时候就是原来的HTTP/1.1 Pipeline，FileRegion可以直接零拷贝发送
+ * 2. 开启了HTTP/2（明文，h2c）的时候同时支持Upgrade: h2c升级以及prior knowledge（直接发送HTTP/2的连接前言），
+ *    其他的请求按HTTP/1.1处理
+ * 3. 开启了TLS的时候通过ALPN协商h2或者http/1.1
+ *
+ * HTTP/2的每个Stream都是一个子Channel，子Channel上的帧被转换成HttpObject，
+ * 之后的处理（请求体聚合、路由、拦截器、过滤器、LmRequest以及LmResponse）和HTTP/1.1完全一样
+ * @Author yeonon
+ * @date 2018/12/22 0022 14:10
+ **/
+public class LmChannelInitializer extends ChannelInitializer<Channel> {
+
+    private static final Logger log = Logger.getLogger(LmChannelInitializer.class);
+
+    private final LmServerConfig config;
+    private final SslContext sslContext;
+    private SelfSignedCertificate selfSignedCertificate;
+
+    public LmChannelInitializer(LmServerConfig config) {
+        this.config = config;
+        this.sslContext = config.getSsl() ? createSslContext() : null;
+    }
+
+    @Override
+    protected void initChannel(Channel ch) throws Exception {
+        ChannelPipeline pipeline = ch.pipeline();
+        if (config.getFlushConsolidation()) {
+            //读取过程中的flush先攒着，读完这一批再统一flush，减少系统调用
+            pipeline.addLast(new FlushConsolidationHandler(config.getFlushConsolidationLimit()));
+        }
+        if (sslContext != null) {
+            pipeline.addLast(sslContext.newHandler(ch.alloc()));
+            pipeline.addLast(new ApplicationProtocolNegotiationHandler(ApplicationProtocolNames.HTTP_1_1) {
+                @Override
+                protected void configurePipeline(ChannelHandlerContext ctx, String protocol) {
+                    if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                        initHttp2(ctx.pipeline());
+                    } else {
+                        ctx.pipeline().addLast(new HttpServerCodec());
+                        initHttp1(ctx.pipeline(), true);
+                    }
+                }
+            });
+        } else if (config.getHttp2()) {
+            initCleartext(pipeline);
+        } else {
+            pipeline.addLast(new HttpServerCodec());
+            initHttp1(pipeline, false);
+        }
+    }
+
+    /**
+     * HTTP/1.1的Pipeline（不包括HttpServerCodec）
+     *
+     * @param pipeline ChannelPipeline
+     * @param tls      是否在TLS之上，TLS的时候不能直接发送FileRegion
+     */
+    private void initHttp1(ChannelPipeline pipeline, boolean tls) {
+        if (Compression.isEnabled()) {
+            pipeline.addLast(new LmHttpContentCompressor());
+        }
+        pipeline.addLast(new ChunkedWriteHandler());
+        if (tls) {
+            pipeline.addLast(ChunkedContentHandler.INSTANCE);
+        }
+        //开启了streaming的路由不聚合请求体，其他路由聚合成FullHttpRequest
+        pipeline.addLast(new LmHttpObjectAggregator(config.getMaxContentLength()));
+        pipeline.addLast(new HttpPipeliningHandler());
+        if (WebBeanProcessor.hasWebSockets()) {
+            //握手请求也要分配管线化的序号，拒绝握手的响应才能按顺序写出
+            pipeline.addLast(WebSocketUpgradeHandler.INSTANCE);
+        }
+        addApplicationHandlers(pipeline);
+    }
+
+    /**
+     * 明文的HTTP/2，不是HTTP/2的连接（没有升级也不是prior knowledge）在第一个请求到达的时候再装上HTTP/1.1的Handler
+     */
+    private void initCleartext(ChannelPipeline pipeline) {
+        HttpServerCodec sourceCodec = new HttpServerCodec();
+        HttpServerUpgradeHandler upgradeHandler = new HttpServerUpgradeHandler(sourceCodec, protocol -> {
+            if (AsciiString.contentEquals(Http2CodecUtil.HTTP_UPGRADE_PROTOCOL_NAME, protocol)) {
+                return new Http2ServerUpgradeCodec(newHttp2FrameCodec(), newHttp2MultiplexHandler(), Http2ExceptionHandler.INSTANCE);
+            }
+            return null;
+        }, config.getMaxContentLength());
+        pipeline.addLast(new CleartextHttp2ServerUpgradeHandler(sourceCodec, upgradeHandler, new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                //prior knowledge，连接前言之后直接就是HTTP/2
+                initHttp2(ch.pipeline());
+            }
+        }));
+        pipeline.addLast(new Http1Fallback());
+    }
+
+    private void initHttp2(ChannelPipeline pipeline) {
+        pipeline.addLast(newHttp2FrameCodec(), newHttp2MultiplexHandler(), Http2ExceptionHandler.INSTANCE);
+    }
+
+    private Http2FrameCodec newHttp2FrameCodec() {
+        //HPACK的头部压缩由Http2FrameCodec完成，这里只限制同时打开的Stream数量
+        Http2Settings settings = Http2Settings.defaultSettings()
+                .maxConcurrentStreams(config.getHttp2MaxConcurrentStreams());
+        return Http2FrameCodecBuilder.forServer()
+                .initialSettings(settings)
+                .build();
+    }
+
+    /**
+     * 每个Stream一个子Channel，子Channel上的Pipeline和HTTP/1.1基本一样，只是不需要管线化
+     * （一个Stream上只有一个请求），FileRegion也要换成分段发送
+     */
+    private Http2MultiplexHandler newHttp2MultiplexHandler() {
+        return new Http2MultiplexHandler(new ChannelInitializer<Channel>() {
+            @Override
+            protected void initChannel(Channel ch) {
+                ChannelPipeline pipeline = ch.pipeline();
+                pipeline.addLast(new Http2StreamFrameToHttpObjectCodec(true));
+                if (Compression.isEnabled()) {
+                    pipeline.addLast(new LmHttpContentCompressor());
+                }
+                pipeline.addLast(new ChunkedWriteHandler());
+                pipeline.addLast(ChunkedContentHandler.INSTANCE);
+                pipeline.addLast(new LmHttpObjectAggregator(config.getMaxContentLength()));
+                addApplicationHandlers(pipeline);
+            }
+        });
+    }
+
+    private static void addApplicationHandlers(ChannelPipeline pipeline) {
+        pipeline.addLast(DispatchHandler.INSTANCE);
+        pipeline.addLast(LmPreInterceptorHandler.INSTANCE);
+        pipeline.addLast(LmFilterInHandler.INSTANCE);
+        pipeline.addLast(LmServerHandler.INSTANCE);
+        pipeline.addLast(LmAfterInterceptorHandler.INSTANCE);
+    }
+
+    /**
+     * 创建TLS的SslContext，没有配置证书的时候使用自签名证书（只适合测试）。
+     * 有OpenSSL（netty-tcnative）的时候优先使用OpenSSL，JDK的SSLEngine不支持ALPN的时候只能使用HTTP/1.1
+     */
+    private SslContext createSslContext() {
+        try {
+            if (config.getHttp2()) {
+                SslContext context = newSslContextBuilder()
+                        .ciphers(Http2SecurityUtil.CIPHERS, SupportedCipherSuiteFilter.INSTANCE)
+                        .applicationProtocolConfig(new ApplicationProtocolConfig(
+                                ApplicationProtocolConfig.Protocol.ALPN,
+                                ApplicationProtocolConfig.SelectorFailureBehavior.NO_ADVERTISE,
+                                ApplicationProtocolConfig.SelectedListenerFailureBehavior.ACCEPT,
+                                ApplicationProtocolNames.HTTP_2,
+                                ApplicationProtocolNames.HTTP_1_1))
+                        .build();
+                if (isAlpnAvailable(context)) {
+                    return context;
+                }
+                log.warn("ALPN is not supported by the ssl provider, https only supports http/1.1");
+            }
+            return newSslContextBuilder().build();
+        } catch (Exception e) {
+            throw new EnvironmentException("can't create ssl context : " + e.getMessage());
+        }
+    }
+
+    private SslContextBuilder newSslContextBuilder() throws Exception {
+        SslContextBuilder builder;
+        if (config.getSslCertFile() != null && config.getSslKeyFile() != null) {
+            builder = SslContextBuilder.forServer(new File(config.getSslCertFile()),
+                    new File(config.getSslKeyFile()), config.getSslKeyPassword());
+        } else {
+            if (selfSignedCertificate == null) {
+                log.warn("sslCertFile or sslKeyFile is not configured, use self signed certificate");
+                selfSignedCertificate = new SelfSignedCertificate();
+            }
+            builder = SslContextBuilder.forServer(selfSignedCertificate.certificate(), selfSignedCertificate.privateKey());
+        }
+        return builder.sslProvider(OpenSsl.isAlpnSupported() ? SslProvider.OPENSSL : SslProvider.JDK);
+    }
+
+    /**
+     * 低版本的JDK8没有ALPN，创建SslContext的时候不会报错，创建SSLEngine的时候才会失败，所以这里先试着创建一个
+     */
+    private static boolean isAlpnAvailable(SslContext context) {
+        try {
+            ReferenceCountUtil.release(context.newEngine(ByteBufAllocator.DEFAULT));
+            return true;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 明文HTTP/2的时候，收到第一个HTTP/1.x的请求说明这是一个普通的HTTP/1.1连接，装上HTTP/1.1的Handler后把请求交给它们；
+     * 升级成HTTP/2之后这个Handler就没用了
+     */
+    private final class Http1Fallback extends ChannelInboundHandlerAdapter {
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (!(msg instanceof HttpMessage)) {
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            //先装上HTTP/1.1的Handler再传递请求，最后才把自己移除
+            initHttp1(ctx.pipeline(), false);
+            ctx.fireChannelRead(msg);
+            ctx.pipeline().remove(this);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof HttpServerUpgradeHandler.UpgradeEvent
+                    || evt instanceof CleartextHttp2ServerUpgradeHandler.PriorKnowledgeUpgradeEvent) {
+                ctx.pipeline().remove(this);
+            }
+            ctx.fireUserEventTriggered(evt);
+        }
+    }
+
+    /**
+     * HTTP/2连接（父Channel）上最后的Handler，连接级别的异常（例如对端重置了连接）在这里关闭连接，
+     * 每个Stream上的异常由子Channel自己的Pipeline处理
+     */
+    @ChannelHandler.Sharable
+    private static final class Http2ExceptionHandler extends ChannelInboundHandlerAdapter {
+
+        static final Http2ExceptionHandler INSTANCE = new Http2ExceptionHandler();
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("http2 connection error, close it : " + ctx.channel(), cause);
+            ctx.close();
+        }
+    }
+}
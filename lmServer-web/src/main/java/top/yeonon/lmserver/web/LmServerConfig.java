@@ -1,7 +1,20 @@
 package top.yeonon.lmserver.web;
 
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import top.yeonon.lmserver.core.utils.PropertiesUtil;
+import top.yeonon.lmserver.web.executor.ExecutionMode;
+import top.yeonon.lmserver.web.executor.HandlerExecutor;
+import top.yeonon.lmserver.web.handler.DispatchHandler;
+import top.yeonon.lmserver.web.handler.WebSocketUpgradeHandler;
+import top.yeonon.lmserver.web.http.Compression;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.json.JsonStreamWriter;
 import top.yeonon.lmserver.web.process.WebBeanProcessor;
+import top.yeonon.lmserver.web.resource.StaticResources;
+import top.yeonon.lmserver.web.sse.SseEmitter;
+import top.yeonon.lmserver.web.websocket.WebSocketSession;
 
 /**
  *
@@ -16,6 +29,61 @@ public final class LmServerConfig {
     private Integer serverPort;
     private Boolean scanWithMultiThread;
 
+    //网络相关的配置
+    private Boolean useEpoll;
+    private Boolean reusePort;
+    private Integer bossThreads;
+    private Integer ioThreads;
+    private Integer soBacklog;
+    private Boolean tcpNoDelay;
+    private Integer soRcvBuf;
+    private Integer soSndBuf;
+    private Boolean flushConsolidation;
+    private Integer flushConsolidationLimit;
+    private Integer maxContentLength;
+    private Integer streamHighWaterMark;
+    private Integer writeBufferLowWaterMark;
+    private Integer writeBufferHighWaterMark;
+    private Integer uploadMemoryThreshold;
+    private String uploadTempDir;
+    private Integer jsonStreamThreshold;
+    private Integer sseHeartbeatInterval;
+    private Integer sseMaxPendingBytes;
+    private Integer webSocketMaxFrameSize;
+    private Integer webSocketMaxMessageSize;
+    private Integer webSocketMaxPendingBytes;
+
+    //HTTP/2以及TLS相关的配置
+    private Boolean http2;
+    private Integer http2MaxConcurrentStreams;
+    private Boolean ssl;
+    private String sslCertFile;
+    private String sslKeyFile;
+    private String sslKeyPassword;
+
+    //压缩相关的配置
+    private Boolean compression;
+    private Integer compressionLevel;
+    private Integer compressionMinSize;
+    private String compressionMimeTypes;
+
+    //静态资源相关的配置
+    private String staticLocation;
+    private Integer staticCacheSize;
+    private Integer staticCacheMaxFileSize;
+    private Integer staticMaxOpenFiles;
+
+    //内存分配相关的配置
+    private Boolean pooledAllocator;
+    private Boolean preferDirect;
+    private Integer allocatorHeapArenas;
+    private Integer allocatorDirectArenas;
+    private Integer allocatorPageSize;
+    private Integer allocatorMaxOrder;
+    private Integer allocatorSmallCacheSize;
+    private Integer allocatorNormalCacheSize;
+    private Boolean allocatorCacheForAllThreads;
+
     private final Class<?> mainClass;
 
     public LmServerConfig(Class<?> mainClass) {
@@ -43,10 +111,180 @@ public final class LmServerConfig {
         scanPackage = PropertiesUtil.getStringProperty("scanPackage", defaultPackage);
         serverPort = PropertiesUtil.getIntegerProperty("serverPort", defaultServerPort);
         scanWithMultiThread = PropertiesUtil.getBooleanProperty("scanWithMultiThread", defaultScanWithMultiThread);
+
+        //处理方法的执行方式，默认在IO线程中执行，只有标注了@Blocking的才放到工作线程池
+        final Integer defaultWorkerThreads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+        final Integer defaultWorkerQueueSize = 1024;
+        HandlerExecutor.configure(
+                ExecutionMode.of(PropertiesUtil.getStringProperty("executionMode"), ExecutionMode.EVENT_LOOP),
+                PropertiesUtil.getIntegerProperty("workerThreads", defaultWorkerThreads),
+                PropertiesUtil.getIntegerProperty("workerQueueSize", defaultWorkerQueueSize));
+
+        //网络相关，ioThreads为0表示使用Netty的默认值（CPU核数 * 2），缓冲区大小为0表示使用系统默认值
+        useEpoll = PropertiesUtil.getBooleanProperty("useEpoll", true);
+        reusePort = PropertiesUtil.getBooleanProperty("reusePort", false);
+        bossThreads = PropertiesUtil.getIntegerProperty("bossThreads", 1);
+        ioThreads = PropertiesUtil.getIntegerProperty("ioThreads", 0);
+        soBacklog = PropertiesUtil.getIntegerProperty("soBacklog", 1024);
+        tcpNoDelay = PropertiesUtil.getBooleanProperty("tcpNoDelay", true);
+        soRcvBuf = PropertiesUtil.getIntegerProperty("soRcvBuf", 0);
+        soSndBuf = PropertiesUtil.getIntegerProperty("soSndBuf", 0);
+        //合并flush，同一批读取到的管线化请求的响应只flush一次
+        flushConsolidation = PropertiesUtil.getBooleanProperty("flushConsolidation", true);
+        flushConsolidationLimit = PropertiesUtil.getIntegerProperty("flushConsolidationLimit", 256);
+        //请求体的默认最大长度，RequestMapping的maxBodySize可以单独设置某个路由的限制
+        maxContentLength = PropertiesUtil.getIntegerProperty("maxContentLength", 16 * 1024);
+        streamHighWaterMark = PropertiesUtil.getIntegerProperty("streamHighWaterMark", 64 * 1024);
+        DispatchHandler.configure(streamHighWaterMark, maxContentLength);
+        //发送缓冲区的高低水位，超过高水位Channel变为不可写，流式响应会等待客户端读取
+        writeBufferLowWaterMark = PropertiesUtil.getIntegerProperty("writeBufferLowWaterMark", 32 * 1024);
+        writeBufferHighWaterMark = PropertiesUtil.getIntegerProperty("writeBufferHighWaterMark", 64 * 1024);
+        //上传的文件以及表单数据超过这个大小就写到临时文件中
+        uploadMemoryThreshold = PropertiesUtil.getIntegerProperty("uploadMemoryThreshold", 16 * 1024);
+        uploadTempDir = PropertiesUtil.getStringProperty("uploadTempDir");
+        LmRequest.configureUploads(uploadMemoryThreshold, uploadTempDir);
+        //Iterator、Stream返回值总是流式序列化，Collection的元素个数达到这个值才流式序列化
+        jsonStreamThreshold = PropertiesUtil.getIntegerProperty("jsonStreamThreshold", 1000);
+        JsonStreamWriter.configure(jsonStreamThreshold);
+        //SSE的心跳间隔（毫秒），以及客户端读得太慢的时候最多积压多少数据
+        sseHeartbeatInterval = PropertiesUtil.getIntegerProperty("sseHeartbeatInterval", 15000);
+        sseMaxPendingBytes = PropertiesUtil.getIntegerProperty("sseMaxPendingBytes", 1024 * 1024);
+        SseEmitter.configure(sseHeartbeatInterval, sseMaxPendingBytes);
+        //WebSocket单帧以及聚合之后一条消息的最大长度，客户端读得太慢的时候最多积压多少数据
+        webSocketMaxFrameSize = PropertiesUtil.getIntegerProperty("webSocketMaxFrameSize", 65536);
+        webSocketMaxMessageSize = PropertiesUtil.getIntegerProperty("webSocketMaxMessageSize", 1024 * 1024);
+        webSocketMaxPendingBytes = PropertiesUtil.getIntegerProperty("webSocketMaxPendingBytes", 1024 * 1024);
+        WebSocketUpgradeHandler.configure(webSocketMaxFrameSize, webSocketMaxMessageSize);
+        WebSocketSession.configure(webSocketMaxPendingBytes);
+
+        //HTTP/2，明文的时候支持h2c升级和prior knowledge，开启TLS的时候通过ALPN协商
+        http2 = PropertiesUtil.getBooleanProperty("http2", false);
+        http2MaxConcurrentStreams = PropertiesUtil.getIntegerProperty("http2MaxConcurrentStreams", 100);
+        //TLS，没有配置证书的时候使用自签名证书
+        ssl = PropertiesUtil.getBooleanProperty("ssl", false);
+        sslCertFile = PropertiesUtil.getStringProperty("sslCertFile");
+        sslKeyFile = PropertiesUtil.getStringProperty("sslKeyFile");
+        sslKeyPassword = PropertiesUtil.getStringProperty("sslKeyPassword");
+
+        //响应压缩，只压缩允许列表中的类型，并且太小的响应不压缩
+        compression = PropertiesUtil.getBooleanProperty("compression", true);
+        compressionLevel = PropertiesUtil.getIntegerProperty("compressionLevel", 6);
+        compressionMinSize = PropertiesUtil.getIntegerProperty("compressionMinSize", 1024);
+        compressionMimeTypes = PropertiesUtil.getStringProperty("compressionMimeTypes");
+        Compression.configure(compression, compressionLevel, compressionMinSize, compressionMimeTypes);
+
+        //静态资源，小文件缓存在内存中，大文件使用FileRegion发送
+        staticLocation = PropertiesUtil.getStringProperty("staticLocation", "static");
+        staticCacheSize = PropertiesUtil.getIntegerProperty("staticCacheSize", 32 * 1024 * 1024);
+        staticCacheMaxFileSize = PropertiesUtil.getIntegerProperty("staticCacheMaxFileSize", 64 * 1024);
+        staticMaxOpenFiles = PropertiesUtil.getIntegerProperty("staticMaxOpenFiles", 256);
+        StaticResources.configure(staticLocation, staticCacheSize, staticCacheMaxFileSize, staticMaxOpenFiles);
+
+        //内存分配，默认使用池化的直接内存，没有配置的项使用Netty的默认值
+        pooledAllocator = PropertiesUtil.getBooleanProperty("pooledAllocator", true);
+        preferDirect = PropertiesUtil.getBooleanProperty("preferDirect", true);
+        allocatorHeapArenas = PropertiesUtil.getIntegerProperty("allocatorHeapArenas", PooledByteBufAllocator.defaultNumHeapArena());
+        allocatorDirectArenas = PropertiesUtil.getIntegerProperty("allocatorDirectArenas", PooledByteBufAllocator.defaultNumDirectArena());
+        allocatorPageSize = PropertiesUtil.getIntegerProperty("allocatorPageSize", PooledByteBufAllocator.defaultPageSize());
+        allocatorMaxOrder = PropertiesUtil.getIntegerProperty("allocatorMaxOrder", PooledByteBufAllocator.defaultMaxOrder());
+        allocatorSmallCacheSize = PropertiesUtil.getIntegerProperty("allocatorSmallCacheSize", PooledByteBufAllocator.defaultSmallCacheSize());
+        allocatorNormalCacheSize = PropertiesUtil.getIntegerProperty("allocatorNormalCacheSize", PooledByteBufAllocator.defaultNormalCacheSize());
+        allocatorCacheForAllThreads = PropertiesUtil.getBooleanProperty("allocatorCacheForAllThreads", PooledByteBufAllocator.defaultUseCacheForAllThreads());
     }
 
 
     public Integer getServerPort() {
         return serverPort;
     }
+
+    /**
+     * 根据配置创建Buffer分配器，服务端Channel和客户端连接共用
+     *
+     * @return 分配器
+     */
+    public ByteBufAllocator createAllocator() {
+        if (!pooledAllocator) {
+            return new UnpooledByteBufAllocator(preferDirect);
+        }
+        return new PooledByteBufAllocator(preferDirect,
+                allocatorHeapArenas, allocatorDirectArenas, allocatorPageSize, allocatorMaxOrder,
+                PooledByteBufAllocator.defaultTinyCacheSize(), allocatorSmallCacheSize, allocatorNormalCacheSize,
+                allocatorCacheForAllThreads);
+    }
+
+    public Boolean getUseEpoll() {
+        return useEpoll;
+    }
+
+    public Boolean getReusePort() {
+        return reusePort;
+    }
+
+    public Integer getBossThreads() {
+        return bossThreads;
+    }
+
+    public Integer getIoThreads() {
+        return ioThreads;
+    }
+
+    public Integer getSoBacklog() {
+        return soBacklog;
+    }
+
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public Integer getSoRcvBuf() {
+        return soRcvBuf;
+    }
+
+    public Integer getSoSndBuf() {
+        return soSndBuf;
+    }
+
+    public Boolean getFlushConsolidation() {
+        return flushConsolidation;
+    }
+
+    public Integer getFlushConsolidationLimit() {
+        return flushConsolidationLimit;
+    }
+
+    public Integer getMaxContentLength() {
+        return maxContentLength;
+    }
+
+    public Integer getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    public Integer getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    public Boolean getHttp2() {
+        return http2;
+    }
+
+    public Integer getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+
+    public Boolean getSsl() {
+        return ssl;
+    }
+
+    public String getSslCertFile() {
+        return sslCertFile;
+    }
+
+    public String getSslKeyFile() {
+        return sslKeyFile;
+    }
+
+    public String getSslKeyPassword() {
+        return sslKeyPassword;
+    }
 }
@@ -1,21 +1,31 @@
 package top.yeonon.lmserver.web;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.*;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.handler.codec.http.HttpObjectAggregator;
-import io.netty.handler.codec.http.HttpServerCodec;
-import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import org.apache.log4j.Logger;
 import top.yeonon.lmserver.core.exception.EnvironmentException;
-import top.yeonon.lmserver.web.handler.*;
+import top.yeonon.lmserver.web.executor.HandlerExecutor;
 import top.yeonon.lmserver.core.utils.JDKVersionUtil;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
+ * 服务启动类
+ *
+ * 在Linux下优先使用epoll，不可用的时候使用NIO。接收连接（boss）和处理IO（worker）使用不同的EventLoopGroup，
+ * 开启reusePort之后（只有epoll支持）会在同一个端口上监听多个Socket，由内核把新连接分散到多个boss线程上
  * @Author yeonon
  * @date 2018/5/20 0020 17:51
  **/
@@ -23,48 +33,83 @@ public class LmServerStarter {
 
     private final static Logger log = Logger.getLogger(LmServerStarter.class);
 
-    private Channel channel;
-    private final EventLoopGroup group;
+    private final List<Channel> channels = new ArrayList<>();
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
     private final ServerBootstrap serverBootstrap;
-    private final int port;
+    private final LmServerConfig config;
+    private final boolean epoll;
 
 
-    public LmServerStarter(int port) {
-        this.port = port;
-        group = new NioEventLoopGroup();
+    public LmServerStarter(LmServerConfig config) {
+        this.config = config;
+        this.epoll = config.getUseEpoll() && Epoll.isAvailable();
+        if (config.getUseEpoll() && !epoll) {
+            log.info("epoll is not available, use nio instead : " + Epoll.unavailabilityCause());
+        }
+        bossGroup = newEventLoopGroup(config.getBossThreads(), "lmServer-boss");
+        workerGroup = newEventLoopGroup(config.getIoThreads(), "lmServer-io");
         serverBootstrap = new ServerBootstrap();
     }
 
+    private EventLoopGroup newEventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name);
+        return epoll ? new EpollEventLoopGroup(threads, threadFactory) : new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private Class<? extends ServerSocketChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
     private ChannelFuture start() {
-        serverBootstrap.group(group)
-                .channel(NioServerSocketChannel.class)
-                .childHandler(new ChannelInitializer<Channel>() {
-                    @Override
-                    protected void initChannel(Channel ch) throws Exception {
-                        ChannelPipeline pipeline = ch.pipeline();
-                        pipeline.addLast(new HttpServerCodec());
-                        pipeline.addLast(new ChunkedWriteHandler());
-                        pipeline.addLast(new HttpObjectAggregator(16 * 1024));
-
-                        pipeline.addLast(DispatchHandler.INSTANCE);
-                        pipeline.addLast(LmPreInterceptorHandler.INSTANCE);
-                        pipeline.addLast(LmFilterInHandler.INSTANCE);
-                        pipeline.addLast(LmServerHandler.INSTANCE);
-                        pipeline.addLast(LmAfterInterceptorHandler.INSTANCE);
-
-                    }
-                });
-        ChannelFuture future = serverBootstrap.bind(new InetSocketAddress(port));
-        future.syncUninterruptibly();
-        channel = future.channel();
+        ByteBufAllocator allocator = config.createAllocator();
+        serverBootstrap.group(bossGroup, workerGroup)
+                .channel(serverChannelClass())
+                .option(ChannelOption.ALLOCATOR, allocator)
+                .childOption(ChannelOption.ALLOCATOR, allocator)
+                .option(ChannelOption.SO_BACKLOG, config.getSoBacklog())
+                .childOption(ChannelOption.TCP_NODELAY, config.getTcpNoDelay())
+                .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK,
+                        new WriteBufferWaterMark(config.getWriteBufferLowWaterMark(), config.getWriteBufferHighWaterMark()))
+                .childHandler(new LmChannelInitializer(config));
+        //0表示使用系统默认值
+        if (config.getSoRcvBuf() > 0) {
+            serverBootstrap.option(ChannelOption.SO_RCVBUF, config.getSoRcvBuf());
+            serverBootstrap.childOption(ChannelOption.SO_RCVBUF, config.getSoRcvBuf());
+        }
+        if (config.getSoSndBuf() > 0) {
+            serverBootstrap.childOption(ChannelOption.SO_SNDBUF, config.getSoSndBuf());
+        }
+
+        //开启reusePort的时候每个boss线程绑定一个监听Socket，否则只绑定一个
+        int bindCount = 1;
+        if (config.getReusePort()) {
+            if (epoll) {
+                serverBootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+                bindCount = Math.max(1, config.getBossThreads());
+            } else {
+                log.warn("reusePort only works with epoll, ignore it");
+            }
+        }
+
+        ChannelFuture future = null;
+        for (int i = 0; i < bindCount; i++) {
+            future = serverBootstrap.bind(new InetSocketAddress(config.getServerPort()));
+            future.syncUninterruptibly();
+            channels.add(future.channel());
+        }
+        log.info("transport : " + (epoll ? "epoll" : "nio") + ", listening sockets : " + bindCount);
         return future;
     }
 
     private void stop() {
-        if (channel != null) {
-            channel.closeFuture();
+        for (Channel channel : channels) {
+            channel.close();
         }
-        group.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+        HandlerExecutor.shutdown();
     }
 
     public static void run(Class<?> mainClass) {
@@ -74,15 +119,17 @@ public class LmServerStarter {
         LmServerConfig serverConfig = new LmServerConfig(mainClass);
         log.info("server listening on port " + serverConfig.getServerPort());
 
-        LmServerStarter starter = new LmServerStarter(serverConfig.getServerPort());
-        ChannelFuture future = starter.start();
+        LmServerStarter starter = new LmServerStarter(serverConfig);
+        starter.start();
 
         log.info("server started");
 
         //添加关闭监听器
         Runtime.getRuntime().addShutdownHook(new Thread(starter::stop));
 
-        future.channel().closeFuture().syncUninterruptibly();
+        for (Channel channel : starter.channels) {
+            channel.closeFuture().syncUninterruptibly();
+        }
     }
 
     /**
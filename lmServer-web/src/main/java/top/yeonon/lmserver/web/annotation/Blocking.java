@@ -0,0 +1,25 @@
+package top.yeonon.lmserver.web.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记会阻塞的处理方法（例如读写数据库、调用远程服务），被标记的方法会放到工作线程池里执行，不会占用Netty的IO线程
+ *
+ * 可以标注在Controller类上（对类里所有的方法生效）或者方法上，方法上的注解优先。
+ * 如果配置了全局的executionMode=worker，可以用@Blocking(false)让一些很快的方法继续在IO线程里执行
+ * @Author yeonon
+ * @date 2018/12/14 0014 10:05
+ **/
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.TYPE, ElementType.METHOD})
+public @interface Blocking {
+
+    /**
+     * 是否放到工作线程池执行
+     * @return
+     */
+    boolean value() default true;
+}
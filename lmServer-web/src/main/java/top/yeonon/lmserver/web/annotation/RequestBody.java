@@ -0,0 +1,24 @@
+package top.yeonon.lmserver.web.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 把JSON格式的请求体绑定到方法参数上，参数可以是任意Jackson能够反序列化的类型（包括List&lt;User&gt;这样的泛型）
+ *
+ * 请求体格式错误会返回400
+ * @Author yeonon
+ * @date 2018/12/18 0018 20:10
+ **/
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface RequestBody {
+
+    /**
+     * 请求体是否必须存在，为false时没有请求体则绑定为null
+     * @return
+     */
+    boolean required() default true;
+}
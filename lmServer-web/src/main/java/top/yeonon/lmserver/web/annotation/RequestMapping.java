@@ -27,4 +27,24 @@ public @interface RequestMapping {
      * @return
      */
     LmRequest.LMHttpMethod method() default LmRequest.LMHttpMethod.GET;
+
+    /**
+     * 是否以流的方式接收请求体，开启之后请求体不会被聚合，处理方法通过LmBodyStream（或者InputStream参数）一边接收一边读取，
+     * 适合上传大文件。开启streaming的方法会放到工作线程池中执行
+     * @return
+     */
+    boolean streaming() default false;
+
+    /**
+     * 请求体的最大长度（字节），超过会返回413，小于等于0表示使用全局配置maxContentLength
+     * @return
+     */
+    long maxBodySize() default -1;
+
+    /**
+     * 是否允许压缩响应，需要同时开启compression配置，并且客户端支持、响应的Content-Type在允许列表中、长度不小于compressionMinSize。
+     * 已经压缩过的数据或者对延迟敏感的小响应可以关闭
+     * @return
+     */
+    boolean compress() default true;
 }
@@ -0,0 +1,31 @@
+package top.yeonon.lmserver.web.annotation;
+
+import top.yeonon.lmserver.core.annotation.Bean;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** WebSocket端点，标注在实现了LmWebSocketHandler的类上
+ * @Author yeonon
+ * @date 2018/12/24 0024 10:05
+ **/
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Bean
+public @interface WebSocketMapping {
+
+    /**
+     * 握手请求的路径
+     * @return
+     */
+    String[] value();
+
+    /**
+     * 是否允许permessage-deflate压缩（客户端也支持的时候才会压缩），
+     * 压缩是每个连接单独进行的，广播的时候不能共享同一份数据，消息很小或者广播很多的端点不建议开启
+     * @return
+     */
+    boolean compress() default false;
+}
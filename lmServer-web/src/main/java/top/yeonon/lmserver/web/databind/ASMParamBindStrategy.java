@@ -1,22 +1,27 @@
 package top.yeonon.lmserver.web.databind;
 
-import jdk.internal.org.objectweb.asm.ClassReader;
-import jdk.internal.org.objectweb.asm.ClassVisitor;
-import jdk.internal.org.objectweb.asm.Label;
-import jdk.internal.org.objectweb.asm.MethodVisitor;
 import org.apache.log4j.Logger;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
 import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
-import top.yeonon.lmserver.web.http.LmWebRequest;
-import top.yeonon.lmserver.web.process.WebBeanProcessor;
-
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.objectweb.asm.Opcodes.ASM5;
 
 /**
- * 基于ASM的参数绑定策略
+ * 基于ASM的参数绑定策略，从类文件的本地变量表中读取参数名称（需要编译的时候带上调试信息，Maven默认就会带上）
+ *
+ * 每个类的类文件只会读取一次，类中所有方法的参数名称都会缓存下来
  * @Author yeonon
  * @date 2018/11/25 0025 13:50
  **/
@@ -26,76 +31,81 @@ public class ASMParamBindStrategy extends AbstractParamBindStrategy {
 
     public static final ASMParamBindStrategy INSTANCE = new ASMParamBindStrategy();
 
-    protected static final String REQUEST_TYPE_NAME = "Ltop/yeonon/lmserver/http/LmRequest;";
-
-    protected static final String RESPONSE_TYPE_NAME = "Ltop/yeonon/lmserver/http/LmResponse;";
+    //类 -> (方法名 + 方法描述符 -> 参数名称数组)
+    private final Map<Class<?>, Map<String, String[]>> paramNameCache = new ConcurrentHashMap<>();
 
     private ASMParamBindStrategy() {}
 
 
     /**
-     * 采用ASM的技术来解析参数
-     * @param args 参数数组
-     * @param paramSize 参数数组长度
-     * @param request 请求
+     * 采用ASM的技术来解析参数名称，方法名称和描述符都要匹配，故重载的方法也没有问题
      * @param method 方法实例
-     * @param instance 该方法对应的类实例
+     * @return 参数名称数组
      */
     @Override
-    protected void putParams(Object[] args, int paramSize, LmWebRequest request, Method method, Object instance) {
-        ClassReader reader = null;
-        try {
-            reader = new ClassReader(instance.getClass().getName());
+    protected String[] getParamNames(Method method) {
+        Map<String, String[]> methods = paramNameCache.computeIfAbsent(method.getDeclaringClass(), this::readParamNames);
+        String[] paramNames = methods.get(method.getName() + Type.getMethodDescriptor(method));
+        if (paramNames == null) {
+            throw new LmServerParamErrorException("can't read parameter names of method " + method);
+        }
+        paramNames = paramNames.clone();
+
+        for (int i = 0; i < paramNames.length; i++) {
+            if (paramNames[i] == null) {
+                //没有本地变量表，即编译的时候没有带上调试信息，这时候只能使用arg0这种名称了
+                log.warn("can't find the name of parameter " + i + " of method " + method +
+                        ", please compile with -g or -parameters");
+                paramNames[i] = method.getParameters()[i].getName();
+            }
+        }
+        return paramNames;
+    }
+
+    /**
+     * 读取类文件，解析出该类所有方法的参数名称
+     * @param clz 类
+     * @return 方法名 + 方法描述符 -> 参数名称数组
+     */
+    private Map<String, String[]> readParamNames(Class<?> clz) {
+        Map<String, String[]> methods = new HashMap<>();
+        String classFile = clz.getName().replace('.', '/') + ".class";
+        ClassLoader classLoader = clz.getClassLoader() == null ? ClassLoader.getSystemClassLoader() : clz.getClassLoader();
+        try (InputStream stream = classLoader.getResourceAsStream(classFile)) {
+            if (stream == null) {
+                throw new LmServerParamErrorException("can't find class file " + classFile);
+            }
+            ClassReader reader = new ClassReader(stream);
             reader.accept(new ClassVisitor(ASM5) {
                 @Override
                 public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-                    if (!method.getName().equals(name)) {
-                        return super.visitMethod(access, name, desc, signature, exceptions);
+                    Type[] argumentTypes = Type.getArgumentTypes(desc);
+                    String[] paramNames = new String[argumentTypes.length];
+                    methods.put(name + desc, paramNames);
+
+                    //计算每个参数在本地变量表中的位置，实例方法的第0位是this，long和double占两位
+                    Map<Integer, Integer> slotToIndex = new HashMap<>();
+                    int slot = Modifier.isStatic(access) ? 0 : 1;
+                    for (int i = 0; i < argumentTypes.length; i++) {
+                        slotToIndex.put(slot, i);
+                        slot += argumentTypes[i].getSize();
                     }
                     return new MethodVisitor(ASM5) {
                         @Override
-                        public void visitLocalVariable(String paramName, String typeName, String s2, Label label, Label label1, int i) {
-                            //该方法会处理在方法里创建的本地变量，但是会先处理参数
-                            //我们不想获取方法中创建的本地变量，故做此判断（i比索引大1，故需要 i >= paramSize+1）
-                            if (i >= paramSize + 1) {
-                                return;
-                            }
-                            //本地实例方法隐含了this,这里直接隐编码即可
-                            if ("this".equals(paramName)) {
-                                return;
+                        public void visitLocalVariable(String paramName, String typeName, String s2, Label label, Label label1, int index) {
+                            //该方法会处理在方法里创建的本地变量，但这些变量的位置都在参数之后，不会出现在slotToIndex里
+                            Integer paramIndex = slotToIndex.get(index);
+                            if (paramIndex != null && paramNames[paramIndex] == null) {
+                                paramNames[paramIndex] = paramName;
                             }
-
-                            if (REQUEST_TYPE_NAME.equals(typeName)) {
-                                args[i - 1] = request.getLmRequest();
-                            } else if (RESPONSE_TYPE_NAME.equals(typeName)) {
-                                args[i - 1] = request.getLmResponse();
-                            } else {
-
-                                TypeNameEnum typeNameEnum = TypeNameEnum.getType(typeName);
-                                //如果不是几个基本类型，那么就肯定是引用类型了，即对象
-                                if (typeNameEnum == null) {
-                                    String newTypeName = typeName.replace("L","").replace(";","").replaceAll("/",".");
-                                    //目前仅支持有@Entity注解的类
-                                    Class<?> type = WebBeanProcessor.getClassType(newTypeName);
-                                    if (type == null) {
-                                        throw new LmServerParamErrorException("不支持该类型");
-                                    }
-                                    //尝试组装对象，processObjectParam是抽象父类的方法
-                                    Object object = processObjectParam(type, request.getLmRequest());
-                                    args[i-1] = object;
-                                    return;
-                                }
-                                args[i - 1] = typeNameEnum.handle(paramName, request.getLmRequest());
-                            }
-
-
                         }
                     };
                 }
-            }, 0);
+            }, ClassReader.SKIP_FRAMES);
         } catch (IOException e) {
-            log.error(e.getCause().toString());
+            throw new LmServerParamErrorException("can't read class file " + classFile + " : " + e.getMessage());
         }
+        return methods;
     }
 
 
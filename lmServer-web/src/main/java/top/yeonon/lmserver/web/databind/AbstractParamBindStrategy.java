@@ -1,14 +1,21 @@
 package top.yeonon.lmserver.web.databind;
 
 import org.apache.log4j.Logger;
+import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
+import top.yeonon.lmserver.web.annotation.RequestBody;
+import top.yeonon.lmserver.web.http.LmBodyStream;
 import top.yeonon.lmserver.web.http.LmRequest;
-import top.yeonon.lmserver.web.http.LmWebRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.LmUploadedFile;
 
-import java.lang.reflect.Field;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.List;
 
 /**
- * 抽象参数绑定策略，采用模板方法模式
+ * 抽象参数绑定策略，采用模板方法模式，子类只需要负责获取参数名称
  * @Author yeonon
  * @date 2018/11/25 0025 14:21
  **/
@@ -16,47 +23,105 @@ public abstract class AbstractParamBindStrategy implements ParamBindStrategy {
 
     private static final Logger log = Logger.getLogger(AbstractParamBindStrategy.class);
 
-
     @Override
-    public Object[] execute(Method method, Object instance, LmWebRequest webRequest) {
-        method.setAccessible(true);
-        int paramSize = method.getParameterCount();
-        Object[] args = new Object[paramSize];
-        putParams(args, paramSize, webRequest, method, instance);
-        return args;
+    public ParamBinder[] resolve(Method method) {
+        Class<?>[] paramTypes = method.getParameterTypes();
+        Type[] genericTypes = method.getGenericParameterTypes();
+        Annotation[][] annotations = method.getParameterAnnotations();
+        String[] paramNames = getParamNames(method);
+        ParamBinder[] binders = new ParamBinder[paramTypes.length];
+        for (int i = 0; i < paramTypes.length; i++) {
+            RequestBody requestBody = findRequestBody(annotations[i]);
+            if (requestBody != null) {
+                //JSON请求体，按参数的泛型类型反序列化
+                binders[i] = new RequestBodyBinder(genericTypes[i], requestBody.required());
+            } else {
+                binders[i] = createBinder(paramTypes[i], genericTypes[i], paramNames[i]);
+            }
+        }
+        return binders;
+    }
+
+    private static RequestBody findRequestBody(Annotation[] annotations) {
+        for (Annotation annotation : annotations) {
+            if (annotation instanceof RequestBody) {
+                return (RequestBody) annotation;
+            }
+        }
+        return null;
     }
 
     /**
-     * 如果参数是引用类型，即对象，那么就采用这个方法处理
+     * 根据参数类型构建对应的绑定器
+     * @param type 参数类型
+     * @param genericType 参数的泛型类型
+     * @param paramName 参数名
+     * @return 绑定器
+     */
+    private ParamBinder createBinder(Class<?> type, Type genericType, String paramName) {
+        //先处理两个特殊的对象 request和response
+        if (type == LmRequest.class) {
+            return (request, response) -> request;
+        } else if (type == LmResponse.class) {
+            return (request, response) -> response;
+        } else if (type == LmBodyStream.class || type == InputStream.class) {
+            //流式请求体，只有开启了streaming的路由才有，否则为null
+            return (request, response) -> request.getBodyStream();
+        } else if (LmUploadedFile.isUploadType(genericType)) {
+            return createUploadBinder(type, paramName);
+        }
+
+        TypeNameEnum typeNameEnum = TypeNameEnum.getType(type);
+        if (typeNameEnum != null) {
+            return (request, response) -> typeNameEnum.handle(paramName, request);
+        }
+        //同名参数的多个值，绑定到数组或者集合上
+        MultiValueConverter converter = MultiValueConverter.of(genericType);
+        if (converter != null) {
+            return (request, response) -> converter.convert(paramName, request.getParamValues(paramName));
+        }
+        //如果不是上面几种类型，那么就肯定是引用类型了，即对象
+        return processObjectParam(type);
+    }
+
+    /**
+     * 上传文件的参数，单个文件或者同名的多个文件（数组、List、Collection）
+     * @param type 参数类型
+     * @param paramName 参数名，即表单中的字段名
+     * @return 绑定器
+     */
+    private ParamBinder createUploadBinder(Class<?> type, String paramName) {
+        if (type == LmUploadedFile.class) {
+            return (request, response) -> request.getFile(paramName);
+        } else if (type.isArray()) {
+            return (request, response) -> request.getFiles(paramName).toArray(new LmUploadedFile[0]);
+        } else if (type.isAssignableFrom(List.class)) {
+            return (request, response) -> request.getFiles(paramName);
+        }
+        throw new LmServerParamErrorException("不支持该类型 : " + type.getName());
+    }
+
+    /**
+     * 如果参数是引用类型，即对象，那么就采用这个方法处理。
+     * 不能绑定的类型（Map、接口、没有无参构造方法的类等）和原来一样绑定为null，启动的时候打印警告，不影响服务启动
      * @param clz 该引用类型的类对象
-     * @param request 请求
-     * @return 新创建的实例对象
+     * @return 绑定器，绑定的时候创建新的实例对象
      */
-    protected final Object processObjectParam(Class<?> clz, LmRequest request) {
-        try {
-            Object instance = clz.newInstance();
-            for (Field field : clz.getDeclaredFields()) {
-                field.setAccessible(true);
-                StringBuilder builder = new StringBuilder(field.getType().getName());
-                //为了复用typeNameEnum，这里还需要修改一下从Java反射中得到的字段typename
-                String newTypeName = builder.insert(0,'L').append(";").toString().replaceAll("\\.","/");
-                TypeNameEnum typeNameEnum = TypeNameEnum.getType(newTypeName);
-                if (typeNameEnum == null) {
-                    //如果还是对象，即typeNameEnum里没有包含的，那么就递归调用processObjectParam
-                    field.set(instance, processObjectParam(field.getType(), request));
-                    return instance;
-                }
-                //为刚刚构造出来的实例设置对象
-                field.set(instance, typeNameEnum.handle(field.getName(), request));
-            }
-            return instance;
-        } catch (InstantiationException | IllegalAccessException e) {
-            log.error(e.getMessage());
+    protected final ParamBinder processObjectParam(Class<?> clz) {
+        if (!BeanBinder.isBindable(clz)) {
+            log.warn("parameter type " + clz.getName() + " is not supported, it will always be null");
+            return (request, response) -> null;
         }
-        return null;
+        BeanBinder beanBinder = BeanBinder.of(clz);
+        return (request, response) -> beanBinder.bind(request);
     }
 
 
-    protected abstract void putParams(Object[] args, int paramSize, LmWebRequest request, Method method, Object instance);
+    /**
+     * 获取方法的参数名称
+     * @param method 方法实例
+     * @return 和方法参数一一对应的参数名称数组
+     */
+    protected abstract String[] getParamNames(Method method);
 
 }
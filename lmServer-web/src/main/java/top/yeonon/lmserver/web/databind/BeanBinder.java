@@ -0,0 +1,192 @@
+package top.yeonon.lmserver.web.databind;
+
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
+import top.yeonon.lmserver.web.http.LmRequest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对象参数的绑定器
+ *
+ * 每个类只在第一次用到的时候解析一次：构造方法、每个字段的setter以及字段对应的类型转换器都会提前准备好，
+ * 绑定的时候只需要遍历字段数组即可，不再需要反射遍历字段、拼接类型描述符
+ *
+ * 字段的参数名就是字段名，嵌套对象的字段需要加上前缀，例如 address.city
+ * @Author yeonon
+ * @date 2018/12/12 0012 15:20
+ **/
+public final class BeanBinder {
+
+    private static final Logger log = Logger.getLogger(BeanBinder.class);
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    private static final MethodType CONSTRUCTOR_TYPE = MethodType.methodType(Object.class);
+
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    //顶层（没有前缀）的绑定器缓存
+    private static final Map<Class<?>, BeanBinder> cache = new ConcurrentHashMap<>();
+
+    private final Class<?> type;
+
+    private final MethodHandle constructor;
+
+    private final FieldBinder[] fields;
+
+    private BeanBinder(Class<?> type, String prefix, Set<Class<?>> parents) {
+        this.type = type;
+        this.constructor = findConstructor(type);
+
+        parents.add(type);
+        List<FieldBinder> fieldBinders = new ArrayList<>();
+        for (Class<?> clz = type; clz != null && clz != Object.class; clz = clz.getSuperclass()) {
+            for (Field field : clz.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)
+                        || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                FieldBinder fieldBinder = createFieldBinder(field, prefix + field.getName(), parents);
+                if (fieldBinder != null) {
+                    fieldBinders.add(fieldBinder);
+                }
+            }
+        }
+        parents.remove(type);
+        this.fields = fieldBinders.toArray(new FieldBinder[0]);
+    }
+
+    /**
+     * 获取类对应的绑定器
+     * @param type 类
+     * @return 绑定器
+     * @throws LmServerParamErrorException 该类不能被绑定（例如没有无参构造方法）
+     */
+    public static BeanBinder of(Class<?> type) {
+        BeanBinder binder = cache.get(type);
+        if (binder == null) {
+            binder = new BeanBinder(type, "", new HashSet<>());
+            cache.putIfAbsent(type, binder);
+        }
+        return binder;
+    }
+
+    /**
+     * 判断该类型是否可以作为对象绑定：不能是JDK里的类、接口、抽象类，且要有无参构造方法
+     * @param type 类型
+     * @return 是否可以绑定
+     */
+    public static boolean isBindable(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isInterface() || type.isEnum()
+                || Modifier.isAbstract(type.getModifiers()) || type.getName().startsWith("java.")) {
+            return false;
+        }
+        try {
+            type.getDeclaredConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findConstructor(Class<?> type) {
+        if (!isBindable(type)) {
+            throw new LmServerParamErrorException("不支持该类型 : " + type.getName());
+        }
+        try {
+            Constructor<?> constructor = type.getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor).asType(CONSTRUCTOR_TYPE);
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new LmServerParamErrorException("不支持该类型 : " + type.getName());
+        }
+    }
+
+    private static FieldBinder createFieldBinder(Field field, String paramName, Set<Class<?>> parents) {
+        MethodHandle setter;
+        try {
+            field.setAccessible(true);
+            setter = LOOKUP.unreflectSetter(field).asType(SETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            log.warn("can't bind field " + field + " : " + e.getMessage());
+            return null;
+        }
+
+        Class<?> fieldType = field.getType();
+        TypeNameEnum typeNameEnum = TypeNameEnum.getType(fieldType);
+        if (typeNameEnum != null) {
+            return new FieldBinder(setter, request -> typeNameEnum.handle(paramName, request));
+        }
+
+        MultiValueConverter converter = MultiValueConverter.of(field.getGenericType());
+        if (converter != null) {
+            return new FieldBinder(setter, request -> converter.convert(paramName, request.getParamValues(paramName)));
+        }
+
+        //嵌套对象，如果出现循环引用（例如树形结构）就不再往下绑定了
+        if (isBindable(fieldType) && !parents.contains(fieldType)) {
+            BeanBinder nested = new BeanBinder(fieldType, paramName + ".", parents);
+            return new FieldBinder(setter, nested::bind);
+        }
+
+        log.debug("skip field " + field + ", the type is not supported");
+        return null;
+    }
+
+    /**
+     * 创建对象并绑定参数
+     * @param request 请求
+     * @return 绑定好参数的对象
+     */
+    public Object bind(LmRequest request) {
+        try {
+            Object instance = constructor.invokeExact();
+            for (FieldBinder field : fields) {
+                field.bind(instance, request);
+            }
+            return instance;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new LmServerParamErrorException("can't bind " + type.getName() + " : " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * 单个字段的绑定器
+     */
+    private static final class FieldBinder {
+
+        private final MethodHandle setter;
+
+        private final ValueReader reader;
+
+        private FieldBinder(MethodHandle setter, ValueReader reader) {
+            this.setter = setter;
+            this.reader = reader;
+        }
+
+        private void bind(Object instance, LmRequest request) throws Throwable {
+            setter.invokeExact(instance, reader.read(request));
+        }
+    }
+
+    @FunctionalInterface
+    private interface ValueReader {
+        Object read(LmRequest request);
+    }
+}
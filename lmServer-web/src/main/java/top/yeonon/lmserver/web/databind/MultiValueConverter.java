@@ -0,0 +1,89 @@
+package top.yeonon.lmserver.web.databind;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * 多值参数的转换器，把同名参数的所有值转换成数组或者集合，例如 ?id=1&id=2 可以绑定到 List&lt;Long&gt; id 上
+ *
+ * 目前只支持元素是TypeNameEnum中类型的数组、List、Set以及Collection
+ * @Author yeonon
+ * @date 2018/12/12 0012 16:05
+ **/
+public final class MultiValueConverter {
+
+    private final Class<?> containerType;
+
+    private final TypeNameEnum elementType;
+
+    private MultiValueConverter(Class<?> containerType, TypeNameEnum elementType) {
+        this.containerType = containerType;
+        this.elementType = elementType;
+    }
+
+    /**
+     * 根据参数（字段）的类型创建转换器
+     * @param type 参数（字段）的泛型类型
+     * @return 转换器，不是支持的多值类型则返回null
+     */
+    public static MultiValueConverter of(Type type) {
+        if (type instanceof Class && ((Class<?>) type).isArray()) {
+            Class<?> arrayType = (Class<?>) type;
+            TypeNameEnum elementType = TypeNameEnum.getType(arrayType.getComponentType());
+            return elementType == null ? null : new MultiValueConverter(arrayType, elementType);
+        }
+        if (type instanceof ParameterizedType) {
+            ParameterizedType parameterizedType = (ParameterizedType) type;
+            Type rawType = parameterizedType.getRawType();
+            Type argument = parameterizedType.getActualTypeArguments()[0];
+            if (rawType instanceof Class && isSupportedCollection((Class<?>) rawType) && argument instanceof Class) {
+                TypeNameEnum elementType = TypeNameEnum.getType((Class<?>) argument);
+                return elementType == null ? null : new MultiValueConverter((Class<?>) rawType, elementType);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSupportedCollection(Class<?> type) {
+        return type == List.class || type == Collection.class || type == Set.class
+                || type == SortedSet.class || type == ArrayList.class
+                || type == LinkedHashSet.class || type == TreeSet.class;
+    }
+
+    /**
+     * 转换
+     * @param paramName 参数名
+     * @param values 同名参数的所有值
+     * @return 数组或者集合
+     */
+    public Object convert(String paramName, List<String> values) {
+        if (containerType.isArray()) {
+            Object array = Array.newInstance(containerType.getComponentType(), values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Array.set(array, i, elementType.handleValue(paramName, values.get(i)));
+            }
+            return array;
+        }
+
+        Collection<Object> collection;
+        if (SortedSet.class.isAssignableFrom(containerType)) {
+            collection = new TreeSet<>();
+        } else if (Set.class.isAssignableFrom(containerType)) {
+            collection = new LinkedHashSet<>(values.size() * 2);
+        } else {
+            collection = new ArrayList<>(values.size());
+        }
+        for (String value : values) {
+            collection.add(elementType.handleValue(paramName, value));
+        }
+        return collection;
+    }
+}
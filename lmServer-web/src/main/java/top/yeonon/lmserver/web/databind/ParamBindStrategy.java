@@ -1,8 +1,6 @@
 package top.yeonon.lmserver.web.databind;
 
 
-import top.yeonon.lmserver.web.http.LmWebRequest;
-
 import java.lang.reflect.Method;
 
 /**
@@ -13,11 +11,9 @@ import java.lang.reflect.Method;
 public interface ParamBindStrategy {
 
     /**
-     * 执行策略
+     * 解析方法的参数，为每个参数构建绑定器，只在注册MethodHandler的时候调用一次
      * @param method 方法实例
-     * @param instance 该方法所属的类实例
-     * @param webRequest 包装后的请求
-     * @return 参数数组
+     * @return 和方法参数一一对应的绑定器数组
      */
-    Object[] execute(Method method, Object instance, LmWebRequest webRequest);
+    ParamBinder[] resolve(Method method);
 }
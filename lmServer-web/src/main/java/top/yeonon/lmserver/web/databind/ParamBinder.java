@@ -0,0 +1,22 @@
+package top.yeonon.lmserver.web.databind;
+
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+
+/**
+ * 单个参数的绑定器，在注册MethodHandler的时候就根据参数的名称和类型构建好，
+ * 请求过来的时候直接调用即可，不需要再去解析参数信息
+ * @Author yeonon
+ * @date 2018/12/10 0010 10:25
+ **/
+@FunctionalInterface
+public interface ParamBinder {
+
+    /**
+     * 从请求中获取参数值
+     * @param request 请求
+     * @param response 响应
+     * @return 参数值
+     */
+    Object bind(LmRequest request, LmResponse response);
+}
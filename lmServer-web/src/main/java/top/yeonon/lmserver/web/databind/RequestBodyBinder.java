@@ -0,0 +1,66 @@
+package top.yeonon.lmserver.web.databind;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
+import top.yeonon.lmserver.web.http.LmBodyStream;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.json.JsonSupport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+
+/**
+ * RequestBody参数的绑定器，直接从请求体的ByteBuf中反序列化，不会先复制成String或者byte[]
+ * @Author yeonon
+ * @date 2018/12/18 0018 20:30
+ **/
+final class RequestBodyBinder implements ParamBinder {
+
+    private final ObjectReader reader;
+
+    private final boolean required;
+
+    RequestBodyBinder(Type type, boolean required) {
+        this.reader = JsonSupport.readerFor(type);
+        this.required = required;
+    }
+
+    @Override
+    public Object bind(LmRequest request, LmResponse response) {
+        InputStream in;
+        ByteBuf content = request.getContent();
+        if (content != null) {
+            if (!content.isReadable()) {
+                return missing();
+            }
+            //duplicate不会修改原来的readerIndex，请求体还可以被再次读取
+            in = new ByteBufInputStream(content.duplicate());
+        } else {
+            LmBodyStream bodyStream = request.getBodyStream();
+            if (bodyStream == null) {
+                return missing();
+            }
+            in = bodyStream;
+        }
+        try {
+            return reader.readValue(in);
+        } catch (JsonProcessingException e) {
+            throw new LmServerParamErrorException("请求体格式错误 : " + e.getOriginalMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Object missing() {
+        if (required) {
+            throw new LmServerParamErrorException("请求体不能为空");
+        }
+        return null;
+    }
+}
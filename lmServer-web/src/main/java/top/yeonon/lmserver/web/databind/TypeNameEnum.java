@@ -1,7 +1,11 @@
 package top.yeonon.lmserver.web.databind;
 
+import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
 import top.yeonon.lmserver.web.http.LmRequest;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * 参数类型处理，主要是适配ASM
  * 每个实例，看名字就知道了，不多做注释了
@@ -9,118 +13,115 @@ import top.yeonon.lmserver.web.http.LmRequest;
  * @date 2018/9/30 0030 17:40
  **/
 public enum TypeNameEnum {
-    STRING("Ljava/lang/String;") {
+    STRING("Ljava/lang/String;", String.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getStringParam(paramName);
+        public Object convert(String value) {
+            return value;
         }
     },
-    INTEGER("Ljava/lang/Integer;") {
+    INTEGER("Ljava/lang/Integer;", Integer.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getIntegerParam(paramName);
+        public Object convert(String value) {
+            return Integer.valueOf(value);
         }
     },
-    LONG("Ljava/lang/Long;") {
+    LONG("Ljava/lang/Long;", Long.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getLongParam(paramName);
+        public Object convert(String value) {
+            return Long.valueOf(value);
         }
     },
-    BOOLEAN("Ljava/lang/Boolean;") {
+    BOOLEAN("Ljava/lang/Boolean;", Boolean.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getBooleanParam(paramName);
+        public Object convert(String value) {
+            return Boolean.valueOf(value);
         }
     },
-    FLOAT("Ljava/lang/Float;") {
+    FLOAT("Ljava/lang/Float;", Float.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getFloatParam(paramName);
+        public Object convert(String value) {
+            return Float.valueOf(value);
         }
     },
-    DOUBLE("Ljava/lang/Double;") {
+    DOUBLE("Ljava/lang/Double;", Double.class, null) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            return request.getDoubleParam(paramName);
+        public Object convert(String value) {
+            return Double.valueOf(value);
         }
     },
-    PRIMITIVE_INT("I") {
+    PRIMITIVE_INT("I", int.class, 0) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Integer val = request.getIntegerParam(paramName);
-            if (val == null) {
-                return 0;
-            }
-            return val;
+        public Object convert(String value) {
+            return Integer.valueOf(value);
         }
     },
-    PRIMITIVE_LONG("L") {
+    PRIMITIVE_LONG("J", long.class, 0L) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Long val = request.getLongParam(paramName);
-            if (val == null) {
-                return 0L;
-            }
-            return val;
+        public Object convert(String value) {
+            return Long.valueOf(value);
         }
     },
-    PRIMITIVE_FLOAT("F") {
+    PRIMITIVE_FLOAT("F", float.class, 0.0f) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Float val = request.getFloatParam(paramName);
-            if (val == null) {
-                return 0.0f;
-            }
-            return val;
+        public Object convert(String value) {
+            return Float.valueOf(value);
         }
     },
-    PRIMITIVE_DOUBLE("D") {
+    PRIMITIVE_DOUBLE("D", double.class, 0.0d) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Double val = request.getDoubleParam(paramName);
-            if (val == null) {
-                return 0.0d;
-            }
-            return val;
+        public Object convert(String value) {
+            return Double.valueOf(value);
         }
     },
-    PRIMITIVE_BOOLEAN("Z") {
+    PRIMITIVE_BOOLEAN("Z", boolean.class, false) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Boolean val = request.getBooleanParam(paramName);
-            if (val == null) {
-                return false;
-            }
-            return val;
+        public Object convert(String value) {
+            return Boolean.valueOf(value);
         }
     },
-    PRIMITIVE_BYTE("B") {
+    PRIMITIVE_BYTE("B", byte.class, (byte) 0) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Byte val = request.getByteParam(paramName);
-            if (val == null) {
-                return 0;
-            }
-            return val;
+        public Object convert(String value) {
+            return Byte.valueOf(value);
         }
     },
-    PRIMITIVE_SHORT("S") {
+    PRIMITIVE_SHORT("S", short.class, (short) 0) {
         @Override
-        public Object handle(String paramName, LmRequest request) {
-            Short val = request.getShortParam(paramName);
-            if (val == null) {
-                return 0;
-            }
-            return val;
+        public Object convert(String value) {
+            return Short.valueOf(value);
         }
     };
 
 
+    //按Java类型查找，在构建参数绑定器的时候使用
+    private static final Map<Class<?>, TypeNameEnum> TYPE_MAP = new HashMap<>();
+
+    static {
+        for (TypeNameEnum typeNameEnum : values()) {
+            TYPE_MAP.put(typeNameEnum.type, typeNameEnum);
+        }
+    }
+
     private String description;
 
-    TypeNameEnum(String description) {
+    private Class<?> type;
+
+    //请求中没有该参数时的值，基本类型不能为null
+    private Object defaultValue;
+
+    TypeNameEnum(String description, Class<?> type, Object defaultValue) {
         this.description = description;
+        this.type = type;
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * 根据Java类型获取对应的处理器
+     * @param type 类型
+     * @return 处理器，不支持的类型返回null
+     */
+    public static TypeNameEnum getType(Class<?> type) {
+        return TYPE_MAP.get(type);
     }
 
     public static TypeNameEnum getType(String name) {
@@ -137,5 +138,45 @@ public enum TypeNameEnum {
         return description;
     }
 
-    public abstract Object handle(String paramName, LmRequest request);
+    public Class<?> getJavaType() {
+        return type;
+    }
+
+    public Object getDefaultValue() {
+        return defaultValue;
+    }
+
+    /**
+     * 从请求中获取参数并转换成对应的类型
+     * @param paramName 参数名
+     * @param request 请求
+     * @return 参数值，请求中没有该参数的话返回默认值
+     */
+    public Object handle(String paramName, LmRequest request) {
+        return handleValue(paramName, request.getStringParam(paramName));
+    }
+
+    /**
+     * 转换参数值，格式错误的话抛出LmServerParamErrorException
+     * @param paramName 参数名
+     * @param value 字符串形式的参数值
+     * @return 转换后的参数值，value为null的话返回默认值
+     */
+    public Object handleValue(String paramName, String value) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return convert(value);
+        } catch (IllegalArgumentException e) {
+            throw new LmServerParamErrorException("参数 " + paramName + " 格式错误 : " + value);
+        }
+    }
+
+    /**
+     * 将字符串转换成对应的类型
+     * @param value 字符串形式的值，不为null
+     * @return 转换后的值
+     */
+    public abstract Object convert(String value);
 }
@@ -0,0 +1,28 @@
+package top.yeonon.lmserver.web.executor;
+
+/**
+ * 处理方法默认的执行方式
+ * @Author yeonon
+ * @date 2018/12/14 0014 10:12
+ **/
+public enum ExecutionMode {
+
+    //直接在Netty的IO线程中执行，适合不会阻塞的方法
+    EVENT_LOOP,
+
+    //放到工作线程池中执行，执行完之后再回到IO线程写响应
+    WORKER;
+
+    /**
+     * 解析配置值，忽略大小写，例如 worker、event_loop
+     * @param value 配置值
+     * @param defaultMode 配置值为空时的默认值
+     * @return 执行方式
+     */
+    public static ExecutionMode of(String value, ExecutionMode defaultMode) {
+        if (value == null) {
+            return defaultMode;
+        }
+        return ExecutionMode.valueOf(value.trim().toUpperCase());
+    }
+}
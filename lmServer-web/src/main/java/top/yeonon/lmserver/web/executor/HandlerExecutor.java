@@ -0,0 +1,135 @@
+package top.yeonon.lmserver.web.executor;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.annotation.Blocking;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 执行阻塞处理方法的工作线程池
+ *
+ * 线程数和队列都是有界的，队列满了之后直接拒绝，由调用者返回503，而不是无限制地堆积请求。
+ * 线程池在第一次用到的时候才创建，如果没有任何阻塞的处理方法，就不会创建额外的线程
+ * @Author yeonon
+ * @date 2018/12/14 0014 10:20
+ **/
+public final class HandlerExecutor {
+
+    private static final Logger log = Logger.getLogger(HandlerExecutor.class);
+
+    private static volatile ExecutionMode defaultMode = ExecutionMode.EVENT_LOOP;
+    private static volatile int threads = Math.max(16, Runtime.getRuntime().availableProcessors() * 4);
+    private static volatile int queueSize = 1024;
+
+    private static volatile ThreadPoolExecutor executor;
+
+    private static final LongAdder submitted = new LongAdder();
+    private static final LongAdder completed = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+    private static final LongAdder totalQueueNanos = new LongAdder();
+    private static final LongAdder totalExecuteNanos = new LongAdder();
+
+    private HandlerExecutor() {
+    }
+
+    /**
+     * 配置线程池，需要在构建路由之前调用
+     * @param mode 处理方法默认的执行方式
+     * @param workerThreads 工作线程数
+     * @param workerQueueSize 队列长度
+     */
+    public static void configure(ExecutionMode mode, int workerThreads, int workerQueueSize) {
+        defaultMode = mode;
+        threads = workerThreads;
+        queueSize = workerQueueSize;
+    }
+
+    /**
+     * 判断处理方法是否需要放到工作线程池中执行，方法上的@Blocking优先于类上的，都没有则使用全局配置
+     * @param method 处理方法
+     * @return 是否放到工作线程池执行
+     */
+    public static boolean isBlocking(Method method) {
+        Blocking blocking = method.getAnnotation(Blocking.class);
+        if (blocking == null) {
+            blocking = method.getDeclaringClass().getAnnotation(Blocking.class);
+        }
+        if (blocking != null) {
+            return blocking.value();
+        }
+        return defaultMode == ExecutionMode.WORKER;
+    }
+
+    /**
+     * 提交任务
+     * @param task 任务
+     * @throws RejectedExecutionException 队列已满或者线程池已经关闭
+     */
+    public static void execute(Runnable task) {
+        final long enqueueTime = System.nanoTime();
+        try {
+            getExecutor().execute(() -> {
+                long startTime = System.nanoTime();
+                totalQueueNanos.add(startTime - enqueueTime);
+                try {
+                    task.run();
+                } finally {
+                    totalExecuteNanos.add(System.nanoTime() - startTime);
+                    completed.increment();
+                }
+            });
+            submitted.increment();
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取当前的运行指标
+     * @return 指标快照
+     */
+    public static StageMetrics getMetrics() {
+        ThreadPoolExecutor current = executor;
+        return new StageMetrics(
+                current == null ? 0 : current.getQueue().size(),
+                queueSize,
+                current == null ? 0 : current.getActiveCount(),
+                current == null ? 0 : current.getPoolSize(),
+                submitted.sum(), completed.sum(), rejected.sum(),
+                totalQueueNanos.sum(), totalExecuteNanos.sum());
+    }
+
+    /**
+     * 关闭线程池，已经提交的任务会继续执行完
+     */
+    public static void shutdown() {
+        ThreadPoolExecutor current = executor;
+        if (current != null) {
+            current.shutdown();
+        }
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor current = executor;
+        if (current == null) {
+            synchronized (HandlerExecutor.class) {
+                current = executor;
+                if (current == null) {
+                    current = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory("lmServer-worker"));
+                    current.allowCoreThreadTimeOut(true);
+                    executor = current;
+                    log.info("worker pool started, threads : " + threads + ", queue size : " + queueSize);
+                }
+            }
+        }
+        return current;
+    }
+}
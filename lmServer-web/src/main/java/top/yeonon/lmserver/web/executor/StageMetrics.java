@@ -0,0 +1,89 @@
+package top.yeonon.lmserver.web.executor;
+
+/**
+ * 工作线程池的运行指标快照
+ * @Author yeonon
+ * @date 2018/12/14 0014 10:40
+ **/
+public final class StageMetrics {
+
+    private final int queueSize;
+    private final int queueCapacity;
+    private final int activeThreads;
+    private final int poolSize;
+    private final long submitted;
+    private final long completed;
+    private final long rejected;
+    private final long totalQueueNanos;
+    private final long totalExecuteNanos;
+
+    StageMetrics(int queueSize, int queueCapacity, int activeThreads, int poolSize,
+                 long submitted, long completed, long rejected,
+                 long totalQueueNanos, long totalExecuteNanos) {
+        this.queueSize = queueSize;
+        this.queueCapacity = queueCapacity;
+        this.activeThreads = activeThreads;
+        this.poolSize = poolSize;
+        this.submitted = submitted;
+        this.completed = completed;
+        this.rejected = rejected;
+        this.totalQueueNanos = totalQueueNanos;
+        this.totalExecuteNanos = totalExecuteNanos;
+    }
+
+    //当前排队等待执行的任务数
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    //正在执行任务的线程数
+    public int getActiveThreads() {
+        return activeThreads;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    public long getSubmitted() {
+        return submitted;
+    }
+
+    public long getCompleted() {
+        return completed;
+    }
+
+    //队列满了被拒绝（返回503）的请求数
+    public long getRejected() {
+        return rejected;
+    }
+
+    //任务在队列中的平均等待时间（毫秒）
+    public double getAverageQueueMillis() {
+        return completed == 0 ? 0 : totalQueueNanos / 1e6 / completed;
+    }
+
+    //任务的平均执行时间（毫秒）
+    public double getAverageExecuteMillis() {
+        return completed == 0 ? 0 : totalExecuteNanos / 1e6 / completed;
+    }
+
+    @Override
+    public String toString() {
+        return "StageMetrics{" +
+                "queueSize=" + queueSize +
+                ", queueCapacity=" + queueCapacity +
+                ", activeThreads=" + activeThreads +
+                ", poolSize=" + poolSize +
+                ", submitted=" + submitted +
+                ", completed=" + completed +
+                ", rejected=" + rejected +
+                ", averageQueueMillis=" + getAverageQueueMillis() +
+                ", averageExecuteMillis=" + getAverageExecuteMillis() +
+                '}';
+    }
+}
@@ -0,0 +1,152 @@
+package top.yeonon.lmserver.web.handler;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.stream.ChunkedInput;
+import top.yeonon.lmserver.web.http.ChunkedContentInput;
+
+import java.io.EOFException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * FileRegion只能直接写到Socket上（sendfile），开启TLS或者在HTTP/2的Stream上就用不了了，
+ * 这时候把FileRegion换成分段读取的ChunkedInput，由后面的ChunkedWriteHandler按照Channel的可写状态一段一段写出
+ *
+ * 同时把裸的ByteBuf以及ChunkedInput&lt;ByteBuf&gt;包装成HttpContent，HTTP/2的Stream只认识HttpObject。
+ * 需要放在ChunkedWriteHandler之后（出站方向在它之前）
+ * @Author yeonon
+ * @date 2018/12/22 0022 15:20
+ **/
+@ChannelHandler.Sharable
+public class ChunkedContentHandler extends ChannelOutboundHandlerAdapter {
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    private ChunkedContentHandler() {
+    }
+
+    public static final ChunkedContentHandler INSTANCE = new ChunkedContentHandler();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (msg instanceof FileRegion) {
+            msg = new FileRegionInput((FileRegion) msg);
+        } else if (msg instanceof ByteBuf) {
+            msg = new DefaultHttpContent((ByteBuf) msg);
+        } else if (msg instanceof ChunkedInput && !(msg instanceof ChunkedContentInput)) {
+            //除了已经包装好的，LmResponse只会写出ChunkedInput<ByteBuf>（例如jar包中的大文件）
+            msg = new ChunkedContentInput((ChunkedInput<ByteBuf>) msg);
+        }
+        ctx.write(msg, promise);
+    }
+
+    /**
+     * 通过FileRegion.transferTo把文件内容一段一段读到Buffer中，关闭的时候释放FileRegion（会关闭或者归还文件句柄）
+     */
+    private static final class FileRegionInput implements ChunkedInput<HttpContent> {
+
+        private final FileRegion region;
+        //写出失败的时候ChunkedWriteHandler可能会关闭多次，FileRegion只能释放一次
+        private boolean closed;
+
+        FileRegionInput(FileRegion region) {
+            this.region = region;
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return closed || region.transferred() >= region.count();
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                region.release();
+            }
+        }
+
+        @Deprecated
+        @Override
+        public HttpContent readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public HttpContent readChunk(ByteBufAllocator allocator) throws Exception {
+            if (isEndOfInput()) {
+                return null;
+            }
+            int size = (int) Math.min(CHUNK_SIZE, region.count() - region.transferred());
+            ByteBuf buf = allocator.buffer(size, size);
+            boolean success = false;
+            try {
+                BufferChannel target = new BufferChannel(buf);
+                while (buf.isWritable()) {
+                    if (region.transferTo(target, region.transferred()) <= 0) {
+                        break;
+                    }
+                }
+                if (buf.readableBytes() < size) {
+                    throw new EOFException("file is shorter than expected, file region : " + region);
+                }
+                success = true;
+                return new DefaultHttpContent(buf);
+            } finally {
+                if (!success) {
+                    buf.release();
+                }
+            }
+        }
+
+        @Override
+        public long length() {
+            return region.count();
+        }
+
+        @Override
+        public long progress() {
+            return region.transferred();
+        }
+    }
+
+    /**
+     * 写到ByteBuf中的Channel，写满了就不再接收，FileChannel.transferTo会在这里停下来
+     */
+    private static final class BufferChannel implements WritableByteChannel {
+
+        private final ByteBuf buf;
+
+        BufferChannel(ByteBuf buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int length = Math.min(src.remaining(), buf.writableBytes());
+            int limit = src.limit();
+            src.limit(src.position() + length);
+            buf.writeBytes(src);
+            src.limit(limit);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -2,49 +2,357 @@ package top.yeonon.lmserver.web.handler;
 
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.TooLongFrameException;
 import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
+import io.netty.util.AttributeKey;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.executor.HandlerExecutor;
+import top.yeonon.lmserver.web.http.LmBodyStream;
 import top.yeonon.lmserver.web.http.LmRequest;
 import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.LmResponseStream;
+import top.yeonon.lmserver.web.http.LmWebRequest;
 import top.yeonon.lmserver.web.process.WebBeanProcessor;
+import top.yeonon.lmserver.web.resource.StaticResources;
+import top.yeonon.lmserver.web.route.HandlerChain;
+import top.yeonon.lmserver.web.route.ResourceChain;
+import top.yeonon.lmserver.web.route.Route;
+import top.yeonon.lmserver.web.route.RouteMatch;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
+ * 入站方向的第一个业务Handler，负责构建LmRequest和LmResponse，并且只做一次路由匹配，
+ * 之后的Handler都直接使用这里构建好的LmWebRequest以及其中的调用链，不再重复解析请求和查找路径
+ *
+ * 普通的请求收到的是聚合好的FullHttpRequest；流式请求先收到请求头（这时候就开始执行处理方法），
+ * 之后的每一块请求体都交给该请求的LmBodyStream；上传文件的请求每收到一块就交给解码器，全部收完之后再执行处理方法
  * @Author yeonon
  * @date 2018/12/4 0004 12:33
  **/
 @ChannelHandler.Sharable
-public class DispatchHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+public class DispatchHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger log = Logger.getLogger(DispatchHandler.class);
+
+    //当前正在接收的流式请求体
+    private static final AttributeKey<LmBodyStream> BODY_STREAM = AttributeKey.valueOf("lmServer.bodyStream");
+
+    //当前正在接收的流式请求体对应的响应，请求体超过长度限制的时候用它返回413
+    private static final AttributeKey<LmResponse> BODY_RESPONSE = AttributeKey.valueOf("lmServer.bodyResponse");
+
+    //当前正在接收的上传文件请求
+    private static final AttributeKey<MultipartUpload> UPLOAD = AttributeKey.valueOf("lmServer.upload");
+
+    //上传文件解码器中已经解析过的数据超过这个大小就丢弃掉，避免整个请求体都留在内存里
+    private static final int UPLOAD_DISCARD_THRESHOLD = 64 * 1024;
 
     private DispatchHandler() {}
 
     public static final DispatchHandler INSTANCE = new DispatchHandler();
 
+    //流式请求体缓存的高水位，超过之后暂停读取
+    private static volatile int streamHighWaterMark = 64 * 1024;
+
+    private static volatile long defaultMaxBodySize = 16 * 1024;
+
+    /**
+     * 配置流式请求体，需要在服务启动之前调用
+     *
+     * @param highWaterMark 缓存的高水位
+     * @param maxBodySize   默认的请求体最大长度
+     */
+    public static void configure(int highWaterMark, long maxBodySize) {
+        streamHighWaterMark = highWaterMark;
+        defaultMaxBodySize = maxBodySize;
+    }
+
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest fullHttpRequest) throws Exception {
-        LmRequest lmRequest = LmRequest.build(ctx, fullHttpRequest);
-        String path = lmRequest.getPath();
-        LmRequest.LMHttpMethod method = lmRequest.getMethod();
-        if (WebBeanProcessor.getMethodAndMethodHandlerOfPath(path.trim()) == null) {
-            sendNotFoundError(ctx, lmRequest);
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof FullHttpRequest) {
+            FullHttpRequest request = (FullHttpRequest) msg;
+            if (request.decoderResult().cause() instanceof TooLongFrameException) {
+                //请求体超过了长度限制，LmHttpObjectAggregator只转发了请求头
+                try {
+                    rejectRequest(ctx, request, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+                } finally {
+                    request.release();
+                }
+                return;
+            }
+            dispatchAndRelease(ctx, LmRequest.build(ctx, request));
+        } else if (msg instanceof HttpRequest) {
+            startStreaming(ctx, (HttpRequest) msg);
+        } else if (msg instanceof HttpContent) {
+            if (ctx.channel().attr(UPLOAD).get() != null) {
+                offerUpload(ctx, (HttpContent) msg);
+            } else {
+                offerContent(ctx, (HttpContent) msg);
+            }
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    /**
+     * 分发请求，LmRequest的引用计数由调用者持有，分发完之后释放（异步或者工作线程执行的时候会自己retain）
+     */
+    private void dispatchAndRelease(ChannelHandlerContext ctx, LmRequest lmRequest) throws Exception {
+        try {
+            dispatch(ctx, lmRequest);
+        } finally {
+            lmRequest.release();
+        }
+    }
+
+    /**
+     * 请求体不聚合的请求：上传文件的请求在接收的时候逐块解码，收完之后再执行处理方法；
+     * 流式请求则在请求头到达的时候就开始执行处理方法
+     */
+    private void startStreaming(ChannelHandlerContext ctx, HttpRequest request) throws Exception {
+        RouteMatch routeMatch = ctx.channel().attr(LmHttpObjectAggregator.ROUTE).get();
+        HandlerChain chain = routeMatch == null ? null
+                : routeMatch.getRoute().getChain(LmRequest.LMHttpMethod.getMethod(request.method().name()));
+        long maxBodySize = chain != null && chain.getMaxBodySize() > 0 ? chain.getMaxBodySize() : defaultMaxBodySize;
+        if (chain != null && !chain.isStreaming() && LmHttpObjectAggregator.isStreaming(chain, request)) {
+            HttpPostRequestDecoder decoder = new HttpPostRequestDecoder(LmRequest.getDataFactory(), request);
+            decoder.setDiscardThreshold(UPLOAD_DISCARD_THRESHOLD);
+            ctx.channel().attr(UPLOAD).set(new MultipartUpload(request, decoder, maxBodySize));
+            return;
+        }
+        LmBodyStream bodyStream = new LmBodyStream(ctx.channel(), maxBodySize, streamHighWaterMark);
+        ctx.channel().attr(BODY_STREAM).set(bodyStream);
+        dispatchAndRelease(ctx, LmRequest.build(ctx, request, bodyStream));
+    }
+
+    /**
+     * 上传文件的请求，每收到一块数据就交给解码器，超过阈值的文件内容会直接写到临时文件中
+     */
+    private void offerUpload(ChannelHandlerContext ctx, HttpContent content) throws Exception {
+        MultipartUpload upload = ctx.channel().attr(UPLOAD).get();
+        boolean last = content instanceof LastHttpContent;
+        try {
+            upload.received += content.content().readableBytes();
+            if (upload.received > upload.maxBodySize) {
+                ctx.channel().attr(UPLOAD).set(null);
+                upload.decoder.destroy();
+                rejectRequest(ctx, upload.request, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+                return;
+            }
+            upload.decoder.offer(content);
+        } catch (HttpPostRequestDecoder.ErrorDataDecoderException e) {
+            log.warn("can't decode multipart body : " + e.getMessage());
+            ctx.channel().attr(UPLOAD).set(null);
+            upload.decoder.destroy();
+            rejectRequest(ctx, upload.request, HttpResponseStatus.BAD_REQUEST);
             return;
-        } else if (WebBeanProcessor.getHandler(path.trim(), method) == null) {
-            sendBadRequestError(ctx, lmRequest);
+        } finally {
+            //解码器会复制需要的数据，这里的Buffer可以直接释放
+            content.release();
+        }
+        if (last) {
+            ctx.channel().attr(UPLOAD).set(null);
+            dispatchAndRelease(ctx, LmRequest.build(ctx, upload.request, upload.decoder));
+        }
+    }
+
+    private void offerContent(ChannelHandlerContext ctx, HttpContent content) {
+        LmBodyStream bodyStream = ctx.channel().attr(BODY_STREAM).get();
+        if (bodyStream == null) {
+            content.release();
             return;
         }
-        fullHttpRequest.retain();
-        ctx.fireChannelRead(fullHttpRequest);
+        boolean last = content instanceof LastHttpContent;
+        LmResponse response = ctx.channel().attr(BODY_RESPONSE).get();
+        if (last) {
+            ctx.channel().attr(BODY_STREAM).set(null);
+            ctx.channel().attr(BODY_RESPONSE).set(null);
+        }
+        if (!bodyStream.offer(content.content())) {
+            //请求体超过了长度限制，处理方法读取的时候会收到异常，剩下的数据已经没有办法处理了，返回413之后关闭连接
+            ctx.channel().attr(BODY_STREAM).set(null);
+            ctx.channel().attr(BODY_RESPONSE).set(null);
+            if (response != null) {
+                rejectAndClose(ctx, response, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE);
+            } else {
+                ctx.close();
+            }
+            return;
+        }
+        if (last) {
+            bodyStream.finish();
+        }
+    }
+
+    /**
+     * 请求还没有交给处理方法（上传文件的请求，或者被LmHttpObjectAggregator拒绝的请求），这时候还没有响应，
+     * 用只包含请求头的LmRequest构建一个。请求体还没有收完，后面的请求还没有到达，连接上当前的管线化序号就是该请求的
+     */
+    private void rejectRequest(ChannelHandlerContext ctx, HttpRequest request, HttpResponseStatus status) {
+        LmRequest lmRequest = LmRequest.build(ctx, request, (HttpPostRequestDecoder) null);
+        try {
+            rejectAndClose(ctx, LmResponse.build(ctx, lmRequest), status);
+        } finally {
+            lmRequest.release();
+        }
     }
 
-    private void sendBadRequestError(ChannelHandlerContext ctx, LmRequest request) {
-        LmResponse response = LmResponse.build(ctx, request);
+    /**
+     * 请求体没有办法继续处理了（剩下的数据还在Socket里），返回错误之后关闭连接。
+     * 通过该请求的LmResponse发送，保持请求的协议版本以及管线化的顺序；处理方法已经发送了响应的话直接关闭连接
+     */
+    private void rejectAndClose(ChannelHandlerContext ctx, LmResponse response, HttpResponseStatus status) {
+        if (response.isSent()) {
+            ctx.close();
+            return;
+        }
         response.setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
-                .sendError("不支持该请求方法", HttpResponseStatus.BAD_REQUEST);
+                .setHeaders(HttpHeaderNames.CONNECTION.toString(), HttpHeaderValues.CLOSE.toString())
+                .sendError(status.reasonPhrase(), status);
     }
 
-    private void sendNotFoundError(ChannelHandlerContext ctx, LmRequest request) {
-        LmResponse response = LmResponse.build(ctx, request);
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        LmBodyStream bodyStream = ctx.channel().attr(BODY_STREAM).getAndSet(null);
+        if (bodyStream != null) {
+            bodyStream.fail(new ClosedChannelException());
+        }
+        ctx.channel().attr(BODY_RESPONSE).set(null);
+        MultipartUpload upload = ctx.channel().attr(UPLOAD).getAndSet(null);
+        if (upload != null) {
+            upload.decoder.destroy();
+        }
+        super.channelInactive(ctx);
+    }
+
+    /**
+     * 客户端读得慢的时候Channel会变得不可写，流式响应需要在可写之后才能继续写入
+     */
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        Set<LmResponseStream> streams = ctx.channel().attr(LmResponseStream.STREAMS).get();
+        if (streams != null) {
+            for (LmResponseStream stream : streams) {
+                stream.writabilityChanged();
+            }
+        }
+        super.channelWritabilityChanged(ctx);
+    }
+
+    private void dispatch(ChannelHandlerContext ctx, LmRequest lmRequest) throws Exception {
+        LmResponse lmResponse = LmResponse.build(ctx, lmRequest);
+        if (lmRequest.getBodyStream() != null) {
+            ctx.channel().attr(BODY_RESPONSE).set(lmResponse);
+        }
+        RouteMatch routeMatch = ctx.channel().attr(LmHttpObjectAggregator.ROUTE).getAndSet(null);
+        if (routeMatch == null) {
+            //没有经过LmHttpObjectAggregator，或者确实没有匹配的路由
+            routeMatch = WebBeanProcessor.getRoute(lmRequest.getPath().trim());
+        }
+        if (routeMatch == null) {
+            //没有匹配的路由，再查找静态资源
+            serveResource(ctx, lmRequest, lmResponse);
+            return;
+        }
+        Route route = routeMatch.getRoute();
+        HandlerChain chain = route.getChain(lmRequest.getMethod());
+        if (chain == null) {
+            sendMethodNotAllowedError(lmResponse, route);
+            return;
+        }
+        lmRequest.setPathVariables(routeMatch.getPathVariables());
+        lmResponse.setCompress(chain.isCompress());
+        LmWebRequest webRequest = new LmWebRequest(lmRequest, lmResponse, chain);
+        if (chain.isBlocking()) {
+            dispatchToWorker(ctx, webRequest);
+            return;
+        }
+        //后续的Handler都是同步执行的，请求在channelRead返回之后才会被释放
+        ctx.fireChannelRead(webRequest);
+    }
+
+    /**
+     * 把阻塞的处理方法交给工作线程池执行，IO线程直接返回，继续处理其他连接
+     *
+     * 工作线程里按照Pipeline中的顺序执行拦截器、Filter和处理方法，写响应以及后置拦截器会由Netty切换回该Channel的IO线程执行
+     */
+    private void dispatchToWorker(ChannelHandlerContext ctx, LmWebRequest webRequest) {
+        //channelRead返回之后请求就会被释放，而工作线程还要读取请求体，所以这里要先retain
+        webRequest.getLmRequest().retain();
+        try {
+            HandlerExecutor.execute(() -> {
+                try {
+                    if (LmPreInterceptorHandler.preHandle(webRequest)) {
+                        webRequest.getHandlerChain().applyFilters(webRequest.getLmRequest());
+                        LmServerHandler.INSTANCE.handle(ctx, webRequest);
+                    }
+                } catch (Throwable e) {
+                    ctx.fireExceptionCaught(e);
+                } finally {
+                    //返回值是CompletionStage的时候handle已经retain了请求，最后一次release（完成之后）才会丢弃没有读完的请求体
+                    webRequest.getLmRequest().release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            webRequest.getLmRequest().release();
+            log.warn("worker pool is full, reject request " + webRequest.getLmRequest().getPath());
+            webRequest.getLmResponse().setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
+                    .sendError("服务器繁忙，请稍后再试", HttpResponseStatus.SERVICE_UNAVAILABLE);
+        }
+    }
+
+    private void sendMethodNotAllowedError(LmResponse response, Route route) {
+        response.setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
+                .setHeaders(HttpHeaderNames.ALLOW.toString(), route.getAllow())
+                .sendError("不支持该请求方法", HttpResponseStatus.METHOD_NOT_ALLOWED);
+    }
+
+    /**
+     * 静态资源和普通的路由一样要经过拦截器和Filter，只是没有路径模板，按请求对应的资源路径匹配
+     * （已经解码并规范化，编码过的路径不能绕过拦截器）
+     */
+    private void serveResource(ChannelHandlerContext ctx, LmRequest lmRequest, LmResponse lmResponse) throws Exception {
+        String path = StaticResources.normalize(lmRequest.getPath());
+        ResourceChain chain = WebBeanProcessor.getResourceChain(path != null ? path : lmRequest.getPath());
+        if (!chain.applyPreHandler(lmRequest, lmResponse)) {
+            LmPreInterceptorHandler.sendForbidden(lmResponse);
+            return;
+        }
+        chain.applyFilters(lmRequest);
+        if (!StaticResources.serve(ctx, lmRequest, lmResponse)) {
+            sendNotFoundError(lmResponse);
+        }
+        chain.applyPostHandler(lmRequest, lmResponse);
+    }
+
+    private void sendNotFoundError(LmResponse response) {
         response.setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
                 .sendError("请求路径不存在！", HttpResponseStatus.NOT_FOUND);
     }
+
+    /**
+     * 正在接收的上传文件请求
+     */
+    private static final class MultipartUpload {
+        private final HttpRequest request;
+        private final HttpPostRequestDecoder decoder;
+        private final long maxBodySize;
+        private long received;
+
+        private MultipartUpload(HttpRequest request, HttpPostRequestDecoder decoder, long maxBodySize) {
+            this.request = request;
+            this.decoder = decoder;
+            this.maxBodySize = maxBodySize;
+        }
+    }
 }
@@ -0,0 +1,122 @@
+package top.yeonon.lmserver.web.handler;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.util.ReferenceCountUtil;
+import top.yeonon.lmserver.web.http.PipelinedMessage;
+
+import java.nio.channels.ClosedChannelException;
+import java.util.PriorityQueue;
+
+/**
+ * 保证HTTP/1.1管线化时响应的顺序和请求的顺序一致
+ *
+ * 入站方向给每个请求分配一个递增的序号，出站方向只有轮到的响应才会直接写出，提前完成的响应先缓存起来，
+ * 等前面的响应写完之后再按顺序写出。大部分情况下响应本来就是按顺序完成的，这时候不需要缓存
+ *
+ * 每个连接一个实例，所有方法都在该连接的IO线程中执行，不需要同步
+ * @Author yeonon
+ * @date 2018/12/15 0015 11:20
+ **/
+public class HttpPipeliningHandler extends ChannelDuplexHandler {
+
+    //下一个请求的序号
+    private int readSequence;
+
+    //当前应该写出的响应的序号
+    private int writeSequence;
+
+    //插入顺序，同一个响应的多条消息要按写入的顺序写出
+    private long order;
+
+    private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest) {
+            ctx.channel().attr(PipelinedMessage.SEQUENCE).set(readSequence++);
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+        if (!(msg instanceof PipelinedMessage)) {
+            ctx.write(msg, promise);
+            return;
+        }
+        PipelinedMessage message = (PipelinedMessage) msg;
+        if (message.getSequence() != writeSequence) {
+            //前面的响应还没有写完，先缓存起来
+            pending.add(new Pending(message, promise, order++));
+            return;
+        }
+        ctx.write(message.getMessage(), promise);
+        if (message.isLast()) {
+            writeSequence++;
+            drain(ctx);
+        }
+    }
+
+    /**
+     * 序号在sequence之前的请求是否都已经写完了响应，只能在该连接的IO线程中调用
+     *
+     * @param sequence 请求的序号
+     * @return 前面的响应是否都已经写完
+     */
+    boolean isWrittenBefore(int sequence) {
+        return writeSequence >= sequence;
+    }
+
+    /**
+     * 写出已经轮到的缓存响应，调用者随后的flush会把它们一起发送出去
+     */
+    private void drain(ChannelHandlerContext ctx) {
+        while (!pending.isEmpty() && pending.peek().message.getSequence() == writeSequence) {
+            Pending next = pending.poll();
+            ctx.write(next.message.getMessage(), next.promise);
+            if (next.message.isLast()) {
+                writeSequence++;
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releasePending();
+    }
+
+    private void releasePending() {
+        Pending next;
+        while ((next = pending.poll()) != null) {
+            ReferenceCountUtil.release(next.message.getMessage());
+            next.promise.tryFailure(new ClosedChannelException());
+        }
+    }
+
+    private static final class Pending implements Comparable<Pending> {
+        private final PipelinedMessage message;
+        private final ChannelPromise promise;
+        private final long order;
+
+        private Pending(PipelinedMessage message, ChannelPromise promise, long order) {
+            this.message = message;
+            this.promise = promise;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Pending o) {
+            int result = Integer.compare(message.getSequence(), o.message.getSequence());
+            return result != 0 ? result : Long.compare(order, o.order);
+        }
+    }
+}
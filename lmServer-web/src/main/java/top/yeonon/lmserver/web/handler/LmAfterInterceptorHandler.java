@@ -4,14 +4,7 @@ import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
-import top.yeonon.lmserver.web.http.LmRequest;
-import top.yeonon.lmserver.web.http.LmResponse;
 import top.yeonon.lmserver.web.http.LmWebRequest;
-import top.yeonon.lmserver.web.interceptor.LmInterceptor;
-import top.yeonon.lmserver.web.process.WebBeanProcessor;
-
-import java.util.List;
-import java.util.ListIterator;
 
 /**
  * 后置拦截器的处理逻辑
@@ -29,18 +22,11 @@ public class LmAfterInterceptorHandler extends ChannelOutboundHandlerAdapter {
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
         if (msg instanceof LmWebRequest) {
             LmWebRequest webRequest = (LmWebRequest) msg;
-            LmRequest request = webRequest.getLmRequest();
-            LmResponse response = webRequest.getLmResponse();
-            List<LmInterceptor> interceptors = WebBeanProcessor.getInterceptor(request.getPath());
-
             //这里要反向遍历拦截器
-            ListIterator<LmInterceptor> li = interceptors.listIterator();
-            while (li.hasNext()) {
-                li.next();
-            }
-            while (li.hasPrevious()) {
-                li.previous().postHandler(request, response);
-            }
+            webRequest.getHandlerChain().applyPostHandler(webRequest.getLmRequest(), webRequest.getLmResponse());
+            //LmWebRequest只是请求上下文，不需要也不能再交给编码器，到这里就结束了
+            promise.trySuccess();
+            return;
         }
 
         //最后继续调用后面的ChannelOutboundHandler（如果有的话）
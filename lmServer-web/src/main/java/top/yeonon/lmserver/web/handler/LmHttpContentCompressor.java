@@ -0,0 +1,44 @@
+package top.yeonon.lmserver.web.handler;
+
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContentCompressor;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import top.yeonon.lmserver.web.http.Compression;
+
+/**
+ * 动态内容的压缩（gzip、deflate，根据Accept-Encoding协商），需要放在HttpServerCodec之后、HttpPipeliningHandler之前，
+ * 这样看到的响应已经是按请求顺序排好的
+ *
+ * 只压缩Content-Type在允许列表中、并且不小于compressionMinSize的内容。
+ * 带有Content-Length的非完整响应（文件、静态资源等直接发送FileRegion或者ChunkedInput的内容）不会压缩，
+ * 处理方法关闭了压缩的响应（LmResponse.setCompress(false)）也不会压缩
+ * @Author yeonon
+ * @date 2018/12/21 0021 10:30
+ **/
+public class LmHttpContentCompressor extends HttpContentCompressor {
+
+    public LmHttpContentCompressor() {
+        super(Compression.getLevel(), 15, 8, Compression.getMinSize());
+    }
+
+    @Override
+    protected Result beginEncode(HttpResponse response, String acceptEncoding) throws Exception {
+        HttpHeaders headers = response.headers();
+        if (headers.contains(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.IDENTITY, true)) {
+            //LmResponse用identity标记不需要压缩，这里去掉标记即可
+            headers.remove(HttpHeaderNames.CONTENT_ENCODING);
+            return null;
+        }
+        if (!(response instanceof FullHttpResponse) && headers.contains(HttpHeaderNames.CONTENT_LENGTH)) {
+            return null;
+        }
+        if (!Compression.isCompressible(headers.get(HttpHeaderNames.CONTENT_TYPE))) {
+            return null;
+        }
+        headers.add(HttpHeaderNames.VARY, HttpHeaderNames.ACCEPT_ENCODING);
+        return super.beginEncode(response, acceptEncoding);
+    }
+}
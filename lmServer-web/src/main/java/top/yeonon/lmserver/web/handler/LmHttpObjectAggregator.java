@@ -0,0 +1,132 @@
+package top.yeonon.lmserver.web.handler;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderResult;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.*;
+import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.process.WebBeanProcessor;
+import top.yeonon.lmserver.web.route.HandlerChain;
+import top.yeonon.lmserver.web.route.RouteMatch;
+
+/**
+ * 按路由决定是否聚合请求体的聚合器
+ *
+ * 请求头到达的时候就做路由匹配：开启了streaming的路由以及上传文件的请求，请求头和请求体的每一块都直接交给后面的Handler；
+ * 其他的路由和原来一样聚合成FullHttpRequest。请求体的长度限制也是按路由的，超过限制由DispatchHandler返回413并关闭连接
+ *
+ * 路由匹配的结果会保存到Channel的属性中，DispatchHandler可以直接使用，不需要再匹配一次
+ *
+ * 每个连接一个实例
+ * @Author yeonon
+ * @date 2018/12/16 0016 15:30
+ **/
+public class LmHttpObjectAggregator extends HttpObjectAggregator {
+
+    /**
+     * 当前请求的路由匹配结果（可能为null，表示没有匹配的路由）
+     */
+    public static final AttributeKey<RouteMatch> ROUTE = AttributeKey.valueOf("lmServer.route");
+
+    private final long defaultMaxBodySize;
+
+    //当前请求的请求体长度限制以及已经收到的长度
+    private long maxBodySize;
+    private long received;
+
+    //当前请求是否是流式请求
+    private boolean streaming;
+
+    //当前请求已经被拒绝，剩下的内容直接丢弃
+    private boolean discarding;
+
+    //当前请求的请求头，拒绝请求的时候要转发给后面的Handler
+    private HttpRequest head;
+
+    public LmHttpObjectAggregator(long defaultMaxBodySize) {
+        //长度限制由这个类自己按路由检查，父类不再限制
+        super(Integer.MAX_VALUE);
+        this.defaultMaxBodySize = defaultMaxBodySize;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof HttpRequest && !(msg instanceof FullHttpRequest)) {
+            HttpRequest request = (HttpRequest) msg;
+            head = request;
+            HandlerChain chain = resolve(ctx, request);
+            streaming = false;
+            discarding = false;
+            received = 0;
+            maxBodySize = chain != null && chain.getMaxBodySize() > 0 ? chain.getMaxBodySize() : defaultMaxBodySize;
+            if (HttpUtil.getContentLength(request, -1L) > maxBodySize) {
+                reject(ctx);
+                ReferenceCountUtil.release(msg);
+                return;
+            }
+            if (chain != null && isStreaming(chain, request)) {
+                streaming = true;
+                if (HttpUtil.is100ContinueExpected(request)) {
+                    request.headers().remove(HttpHeaderNames.EXPECT);
+                    ctx.writeAndFlush(new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.CONTINUE, Unpooled.EMPTY_BUFFER));
+                }
+                ctx.fireChannelRead(msg);
+                return;
+            }
+        } else if (msg instanceof HttpContent) {
+            boolean last = msg instanceof LastHttpContent;
+            if (discarding) {
+                ReferenceCountUtil.release(msg);
+                discarding = !last;
+                return;
+            }
+            if (streaming) {
+                //流式请求的长度限制由LmBodyStream检查
+                streaming = !last;
+                ctx.fireChannelRead(msg);
+                return;
+            }
+            received += ((HttpContent) msg).content().readableBytes();
+            if (received > maxBodySize) {
+                ReferenceCountUtil.release(msg);
+                reject(ctx);
+                return;
+            }
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    /**
+     * 流式请求体，或者是有上传文件参数的路由收到的multipart请求（由DispatchHandler逐块解码），都不需要聚合
+     */
+    static boolean isStreaming(HandlerChain chain, HttpRequest request) {
+        return chain.isStreaming() || (chain.isAcceptUploads() && HttpPostRequestDecoder.isMultipart(request));
+    }
+
+    private HandlerChain resolve(ChannelHandlerContext ctx, HttpRequest request) {
+        String uri = request.uri();
+        int index = uri.indexOf('?');
+        RouteMatch match = WebBeanProcessor.getRoute((index < 0 ? uri : uri.substring(0, index)).trim());
+        ctx.channel().attr(ROUTE).set(match);
+        if (match == null) {
+            return null;
+        }
+        return match.getRoute().getChain(LmRequest.LMHttpMethod.getMethod(request.method().name()));
+    }
+
+    /**
+     * 请求体太大，剩下的请求体直接丢弃。只把请求头转发给后面的Handler（解码结果标记为失败），
+     * 由DispatchHandler通过该请求的LmResponse返回413并关闭连接，这样响应的协议版本和管线化的顺序都和正常的响应一致
+     */
+    private void reject(ChannelHandlerContext ctx) {
+        discarding = true;
+        FullHttpRequest rejected = new DefaultFullHttpRequest(head.protocolVersion(), head.method(), head.uri(),
+                Unpooled.EMPTY_BUFFER, head.headers(), EmptyHttpHeaders.INSTANCE);
+        rejected.setDecoderResult(DecoderResult.failure(new TooLongFrameException("request body is larger than " + maxBodySize + " bytes")));
+        ctx.fireChannelRead(rejected);
+    }
+}
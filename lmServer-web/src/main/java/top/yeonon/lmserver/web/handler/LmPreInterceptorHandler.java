@@ -3,50 +3,56 @@ package top.yeonon.lmserver.web.handler;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.FullHttpRequest;
-import top.yeonon.lmserver.web.http.LmRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
 import top.yeonon.lmserver.web.http.LmResponse;
-import top.yeonon.lmserver.web.interceptor.LmInterceptor;
-import top.yeonon.lmserver.web.process.WebBeanProcessor;
-
-import java.util.List;
+import top.yeonon.lmserver.web.http.LmWebRequest;
 
 /**
  * @Author yeonon
  * @date 2018/5/25 0025 16:17
  **/
 @ChannelHandler.Sharable
-public class LmPreInterceptorHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+public class LmPreInterceptorHandler extends SimpleChannelInboundHandler<LmWebRequest> {
 
     public LmPreInterceptorHandler() {}
 
     public static final LmPreInterceptorHandler INSTANCE = new LmPreInterceptorHandler();
 
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest fullHttpRequest) throws Exception {
-        LmRequest request = LmRequest.build(ctx, fullHttpRequest);
-
-        String path = request.getPath();
-        List<LmInterceptor> interceptors = WebBeanProcessor.getInterceptor(path);
-        //默认是通过拦截器
-        boolean isPass = true;
-        if (interceptors == null) {
-            fullHttpRequest.retain();
-            ctx.fireChannelRead(fullHttpRequest);
-        } else {
-            LmResponse response = LmResponse.build(ctx, request);
-            for (LmInterceptor interceptor : interceptors) {
-                isPass = interceptor.preHandler(request, response);
-                //一旦有一个拦截器返回False，就没有必要执行之后的拦截器逻辑了
-                if (!isPass) {
-                    break;
-                }
-            }
-            //通过才会继续往下执行业务逻辑
-            if (isPass) {
-                fullHttpRequest.retain();
-                ctx.fireChannelRead(fullHttpRequest);
-            }
+    protected void channelRead0(ChannelHandlerContext ctx, LmWebRequest webRequest) throws Exception {
+        //通过才会继续往下执行业务逻辑
+        if (preHandle(webRequest)) {
+            ctx.fireChannelRead(webRequest);
+        }
+    }
+
+    /**
+     * 执行拦截器的preHandler，拦截器返回false但是自己没有发送响应的话返回403。
+     * 每个请求都必须有响应，否则管线化的时候该请求的序号一直写不出去，同一个连接上之后的响应都会被卡住
+     *
+     * @param webRequest 请求上下文
+     * @return 是否通过所有拦截器
+     */
+    static boolean preHandle(LmWebRequest webRequest) {
+        LmResponse response = webRequest.getLmResponse();
+        if (webRequest.getHandlerChain().applyPreHandler(webRequest.getLmRequest(), response)) {
+            return true;
+        }
+        sendForbidden(response);
+        return false;
+    }
+
+    /**
+     * 拦截器拒绝了请求，自己没有发送响应的话返回403，连接仍然保持
+     *
+     * @param response 响应
+     */
+    static void sendForbidden(LmResponse response) {
+        if (!response.isSent()) {
+            response.setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
+                    .setContent("拒绝访问")
+                    .setStatus(HttpResponseStatus.FORBIDDEN)
+                    .send();
         }
     }
 
@@ -1,101 +1,158 @@
 package top.yeonon.lmserver.web.handler;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.handler.codec.http.FullHttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import org.apache.commons.lang3.StringUtils;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.core.exception.LmServerParamErrorException;
 import top.yeonon.lmserver.web.http.LmRequest;
 import top.yeonon.lmserver.web.http.LmResponse;
 import top.yeonon.lmserver.web.http.LmWebRequest;
-import top.yeonon.lmserver.web.method.MethodHandler;
-import top.yeonon.lmserver.web.process.WebBeanProcessor;
+import top.yeonon.lmserver.web.json.JsonStreamWriter;
+import top.yeonon.lmserver.web.route.HandlerChain;
 
-import java.io.File;
-import java.lang.reflect.InvocationTargetException;
+import java.io.IOException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 /**
  * 属于Netty框架下的的handler，处于进站方向的最后一个
  *
+ * 处理方法可以返回CompletionStage，这种情况下不会占用线程等待结果，等异步结果完成之后再回到IO线程序列化并发送响应
+ *
  * @Author yeonon
  * @date 2018/5/23 0023 19:14
  **/
 @ChannelHandler.Sharable
-public class LmServerHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+public class LmServerHandler extends SimpleChannelInboundHandler<LmWebRequest> {
+
+    private static final Logger log = Logger.getLogger(LmServerHandler.class);
 
     private LmServerHandler() {
     }
 
     public static final LmServerHandler INSTANCE = new LmServerHandler();
 
-    private static final String STATIC_PATH = "static";
-
-    //将对象转换成JSON格式的字符串需要用的
-    private ObjectMapper objectMapper = new ObjectMapper();
-
     @Override
-    protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest fullHttpRequest) throws Exception {
-        //构建LmRequest和LmResponse
-        LmRequest request = LmRequest.build(ctx, fullHttpRequest);
-        LmResponse response = LmResponse.build(ctx, request);
-        //获取请求路径
-        String path = request.getPath();
-        if (StringUtils.isNotBlank(path) && path.endsWith(".html")) {
-            sendHtml(response, path);
-        } else {
-            sendNormalContent(request, response, path);
+    protected void channelRead0(ChannelHandlerContext ctx, LmWebRequest webRequest) throws Exception {
+        handle(ctx, webRequest);
+    }
+
+    /**
+     * 执行处理方法并发送响应，阻塞的处理方法会在工作线程中直接调用这个方法
+     *
+     * @param ctx        ChannelHandlerContext
+     * @param webRequest 请求上下文
+     * @throws Exception
+     */
+    void handle(ChannelHandlerContext ctx, LmWebRequest webRequest) throws Exception {
+        //LmRequest和LmResponse已经在DispatchHandler中构建好了
+        LmRequest request = webRequest.getLmRequest();
+        LmResponse response = webRequest.getLmResponse();
+        HandlerChain chain = webRequest.getHandlerChain();
+        //这里已经不需要判断handler是否为null，因为在之前的DispatchHandler已经处理过了
+        Object message;
+        try {
+            message = chain.getMethodHandler().execute(request, response);
+        } catch (LmServerParamErrorException e) {
+            //参数错误是客户端的问题，返回400即可，不需要关闭连接
+            sendBadRequest(response, e.getMessage());
+            ctx.channel().write(webRequest);
+            return;
+        }
+        if (message instanceof CompletionStage) {
+            //异步的返回值，等完成之后再发送响应以及执行后置拦截器，当前线程直接返回
+            //请求在完成之前还可能被用到（例如后置拦截器），所以先retain，完成之后再释放
+            request.retain();
+            ((CompletionStage<?>) message).whenComplete((result, cause) -> {
+                if (ctx.executor().inEventLoop()) {
+                    complete(ctx, webRequest, result, cause);
+                } else {
+                    ctx.executor().execute(() -> complete(ctx, webRequest, result, cause));
+                }
+            });
+            return;
         }
+        sendNormalContent(ctx, chain, request, response, message);
 
-        ctx.channel().write(new LmWebRequest(request, response));
+        //交给后置拦截器处理
+        ctx.channel().write(webRequest);
     }
 
     /**
-     * 发送HTML静态内容
+     * 异步返回值完成之后，在该Channel的IO线程中发送响应，然后执行后置拦截器
      *
-     * @param response 响应
-     * @param path     HTML所在路径
+     * @param ctx        ChannelHandlerContext
+     * @param webRequest 请求上下文
+     * @param result     异步的结果
+     * @param cause      异常，正常完成的时候为null
      */
-    private void sendHtml(LmResponse response, String path) {
-        String fileName = LmServerHandler.class.getResource("/").getPath() + STATIC_PATH + path;
-        File file = new File(fileName);
-        if (file.exists()) {
-            response.setContent(file).setContentType(LmResponse.ContentTypeValue.HTML_CONTENT).send();
-        } else {
-            response.sendError("404 Not Found", HttpResponseStatus.NOT_FOUND);
-
+    private void complete(ChannelHandlerContext ctx, LmWebRequest webRequest, Object result, Throwable cause) {
+        LmResponse response = webRequest.getLmResponse();
+        try {
+            if (cause != null) {
+                if (cause instanceof CompletionException && cause.getCause() != null) {
+                    cause = cause.getCause();
+                }
+                log.error("async handler failed, path : " + webRequest.getLmRequest().getPath(), cause);
+                if (!response.isSent()) {
+                    response.sendError("服务器异常", HttpResponseStatus.INTERNAL_SERVER_ERROR);
+                }
+            } else {
+                sendNormalContent(ctx, webRequest.getHandlerChain(), webRequest.getLmRequest(), response, result);
+            }
+            ctx.channel().write(webRequest);
+        } catch (Throwable e) {
+            log.error("can't send response, path : " + webRequest.getLmRequest().getPath(), e);
+            ctx.close();
+        } finally {
+            webRequest.getLmRequest().release();
         }
     }
 
+    /**
+     * 参数绑定失败（例如参数格式错误、请求体不是合法的JSON），返回400，长连接会继续保持
+     *
+     * @param response 响应
+     * @param message  错误信息
+     */
+    private void sendBadRequest(LmResponse response, String message) {
+        if (response.isSent()) {
+            return;
+        }
+        response.setContent(message)
+                .setStatus(HttpResponseStatus.BAD_REQUEST)
+                .send();
+    }
 
     /**
-     * 发送普通文本
+     * 发送普通文本，返回值直接序列化到Channel分配的Buffer中。
+     * Iterator、Stream等返回值（以及很大的Collection）一边遍历一边序列化，以流的方式发送
      *
+     * @param ctx      ChannelHandlerContext
+     * @param chain    DispatchHandler中路由匹配得到的调用链
      * @param request  请求
      * @param response 响应
-     * @param path     路径
-     * @throws JsonProcessingException
-     * @throws InvocationTargetException
-     * @throws IllegalAccessException
+     * @param message  处理方法的返回值
+     * @throws IOException
      */
-    private void sendNormalContent(LmRequest request, LmResponse response, String path) throws JsonProcessingException, InvocationTargetException, IllegalAccessException {
-        MethodHandler handler = WebBeanProcessor.getHandler(path.trim(), request.getMethod());
-        //handler不为null的话，就正常执行url对应的处理方法，并将返回值写回客户端
-
-        //这里实际上已经不需要判断handler是否为null，因为在之前的DispatchHandler已经处理过了
-        Object message = handler.execute(request, response);
+    private void sendNormalContent(ChannelHandlerContext ctx, HandlerChain chain, LmRequest request,
+                                   LmResponse response, Object message) throws IOException {
+        if (response.isSent()) {
+            //处理方法自己已经发送了响应（例如异步方法在回调里直接写了LmResponse，或者返回了打开的SseEmitter）
+            return;
+        }
         if (message == null) {
             //如果消息为null，也许是参数错误，或者服务端出现异常，例如读写数据库异常等
             response.sendError("服务器异常或者参数错误", HttpResponseStatus.valueOf(500));
+        } else if (JsonStreamWriter.isStreamable(message)) {
+            JsonStreamWriter.write(ctx, request, response, message);
         } else {
-            response.setContent(objectMapper.writeValueAsString(message))
+            response.setContent(chain.getResponseWriter().write(ctx.alloc(), message))
                     .setContentType(LmResponse.ContentTypeValue.JSON_CONTENT)
                     .send();
         }
-
-
     }
 
     /**
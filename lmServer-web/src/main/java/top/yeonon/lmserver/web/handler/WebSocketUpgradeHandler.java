@@ -0,0 +1,168 @@
+package top.yeonon.lmserver.web.handler;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.netty.handler.stream.ChunkedWriteHandler;
+import io.netty.util.AsciiString;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.PipelinedMessage;
+import top.yeonon.lmserver.web.process.WebBeanProcessor;
+import top.yeonon.lmserver.web.websocket.WebSocketEndpoint;
+import top.yeonon.lmserver.web.websocket.WebSocketFrameHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * WebSocket升级：请求头中有Upgrade: websocket，并且路径上注册了@WebSocketMapping端点的时候，
+ * 把该连接上HTTP的Handler（压缩、管线化、分发、拦截器等）换成WebSocket的Handler，
+ * 握手由Netty的WebSocketServerProtocolHandler完成（它会把HttpServerCodec换成WebSocket的编解码器）。
+ * 升级之前握手请求会经过匹配该路径的拦截器和Filter，拦截器可以拒绝握手（例如鉴权失败）。
+ * 管线化的时候，握手请求之前的请求都已经发送了响应才会升级，否则返回400并关闭连接。
+ *
+ * 放在HttpPipeliningHandler之后，只有HTTP/1.1的连接才有
+ * @Author yeonon
+ * @date 2018/12/24 0024 11:50
+ **/
+@ChannelHandler.Sharable
+public class WebSocketUpgradeHandler extends ChannelInboundHandlerAdapter {
+
+    private static volatile int maxFrameSize = 65536;
+    private static volatile int maxMessageSize = 1024 * 1024;
+
+    private WebSocketUpgradeHandler() {
+    }
+
+    public static final WebSocketUpgradeHandler INSTANCE = new WebSocketUpgradeHandler();
+
+    public static void configure(int frameSize, int messageSize) {
+        maxFrameSize = frameSize;
+        maxMessageSize = messageSize;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof FullHttpRequest && isWebSocketUpgrade(((FullHttpRequest) msg).headers())) {
+            FullHttpRequest request = (FullHttpRequest) msg;
+            WebSocketEndpoint endpoint = WebBeanProcessor.getWebSocket(new QueryStringDecoder(request.uri()).path());
+            if (endpoint != null) {
+                if (!isPipelineIdle(ctx)) {
+                    rejectPipelined(ctx, request);
+                    request.release();
+                } else if (accept(ctx, request, endpoint)) {
+                    upgrade(ctx, request, endpoint);
+                } else {
+                    request.release();
+                }
+                return;
+            }
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    private static boolean isWebSocketUpgrade(HttpHeaders headers) {
+        return headers.containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.UPGRADE, true)
+                && AsciiString.contentEqualsIgnoreCase(HttpHeaderValues.WEBSOCKET, headers.get(HttpHeaderNames.UPGRADE));
+    }
+
+    /**
+     * 管线化的时候，握手请求之前的请求可能还没有发送响应（例如还在工作线程池中执行），
+     * 这时候升级的话这些响应会被写到WebSocket的连接上，所以只有前面的响应都写完了才能升级
+     */
+    private static boolean isPipelineIdle(ChannelHandlerContext ctx) {
+        HttpPipeliningHandler pipelining = ctx.pipeline().get(HttpPipeliningHandler.class);
+        Integer sequence = ctx.channel().attr(PipelinedMessage.SEQUENCE).get();
+        return pipelining == null || sequence == null || pipelining.isWrittenBefore(sequence);
+    }
+
+    /**
+     * 前面还有没有完成的请求，拒绝握手：响应按顺序排在前面的响应之后，发送完关闭连接
+     */
+    private void rejectPipelined(ChannelHandlerContext ctx, FullHttpRequest request) {
+        LmRequest lmRequest = LmRequest.build(ctx, request.retain());
+        try {
+            LmResponse.build(ctx, lmRequest)
+                    .setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
+                    .setHeaders(HttpHeaderNames.CONNECTION.toString(), HttpHeaderValues.CLOSE.toString())
+                    .sendError("前面的请求还没有完成，不能升级成WebSocket", HttpResponseStatus.BAD_REQUEST);
+        } finally {
+            lmRequest.release();
+        }
+    }
+
+    /**
+     * 和普通请求一样，握手请求先按顺序经过匹配该路径的拦截器和Filter，拦截器返回false的时候拒绝握手，
+     * 拦截器自己没有发送响应的话返回403，连接仍然是HTTP的
+     *
+     * @return 是否允许升级
+     */
+    private boolean accept(ChannelHandlerContext ctx, FullHttpRequest request, WebSocketEndpoint endpoint) {
+        //LmRequest释放的时候会释放握手请求，而握手还要继续使用它，所以先retain
+        LmRequest lmRequest = LmRequest.build(ctx, request.retain());
+        try {
+            LmResponse response = LmResponse.build(ctx, lmRequest);
+            if (endpoint.applyPreHandler(lmRequest, response)) {
+                endpoint.applyFilters(lmRequest);
+                return true;
+            }
+            if (!response.isSent()) {
+                response.setContentType(LmResponse.ContentTypeValue.PLAIN_CONTENT)
+                        .sendError("拒绝WebSocket握手", HttpResponseStatus.FORBIDDEN);
+            }
+            return false;
+        } catch (RuntimeException e) {
+            request.release();
+            throw e;
+        } finally {
+            lmRequest.release();
+        }
+    }
+
+    private void upgrade(ChannelHandlerContext ctx, FullHttpRequest request, WebSocketEndpoint endpoint) {
+        ChannelPipeline pipeline = ctx.pipeline();
+        //后面的都是处理HTTP请求的Handler
+        List<String> names = pipeline.names();
+        for (String name : new ArrayList<>(names.subList(names.indexOf(ctx.name()) + 1, names.size()))) {
+            if (pipeline.context(name) != null) {
+                pipeline.remove(name);
+            }
+        }
+        //前面处理HTTP的Handler也用不到了，LmHttpObjectAggregator由握手的时候自己移除
+        if (pipeline.get(HttpPipeliningHandler.class) != null) {
+            pipeline.remove(HttpPipeliningHandler.class);
+        }
+        if (pipeline.get(LmHttpContentCompressor.class) != null) {
+            pipeline.remove(LmHttpContentCompressor.class);
+        }
+        if (pipeline.get(ChunkedWriteHandler.class) != null) {
+            pipeline.remove(ChunkedWriteHandler.class);
+        }
+        if (pipeline.get(ChunkedContentHandler.class) != null) {
+            pipeline.remove(ChunkedContentHandler.class);
+        }
+
+        if (endpoint.isCompress()) {
+            //协商permessage-deflate，握手响应写出的时候装上压缩和解压的Handler
+            pipeline.addLast(new WebSocketServerCompressionHandler());
+        }
+        //路径已经匹配过了，用前缀匹配让带Query参数的请求也能握手
+        pipeline.addLast(new WebSocketServerProtocolHandler(endpoint.getPath(), null, endpoint.isCompress(),
+                maxFrameSize, false, true));
+        pipeline.addLast(new WebSocketFrameAggregator(maxMessageSize));
+        pipeline.addLast(new WebSocketFrameHandler(endpoint, ctx, request));
+        ctx.fireChannelRead(request);
+        pipeline.remove(ctx.name());
+    }
+}
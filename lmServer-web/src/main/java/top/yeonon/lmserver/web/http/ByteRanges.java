@@ -0,0 +1,99 @@
+package top.yeonon.lmserver.web.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析Range请求头，只支持bytes单位
+ * @Author yeonon
+ * @date 2018/12/20 0020 10:10
+ **/
+final class ByteRanges {
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    //一次请求最多的范围数，超过了直接返回完整内容，防止被用来放大流量
+    private static final int MAX_RANGES = 16;
+
+    private static final long[][] UNSATISFIABLE = new long[0][];
+
+    private ByteRanges() {
+    }
+
+    /**
+     * 解析Range请求头
+     *
+     * @param header Range请求头
+     * @param length 内容的总长度
+     * @return 每个范围的起始和结束位置（包含），空数组表示没有一个范围是满足的（416）；
+     * 格式错误或者需要忽略Range的时候返回null，此时应该返回完整内容
+     */
+    static long[][] parse(String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+        String[] specs = header.substring(BYTES_UNIT.length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<long[]> ranges = new ArrayList<>(specs.length);
+        long total = 0;
+        for (String rawSpec : specs) {
+            String spec = rawSpec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            long start;
+            long end;
+            if (dash == 0) {
+                //后缀范围，例如-500表示最后500个字节
+                long suffix = parseNumber(spec.substring(1));
+                if (suffix < 0) {
+                    return null;
+                }
+                if (suffix == 0 || length == 0) {
+                    continue;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = parseNumber(spec.substring(0, dash));
+                String endValue = spec.substring(dash + 1);
+                end = endValue.isEmpty() ? length - 1 : parseNumber(endValue);
+                if (start < 0 || (!endValue.isEmpty() && (end < 0 || end < start))) {
+                    return null;
+                }
+                if (start >= length) {
+                    continue;
+                }
+                end = Math.min(end, length - 1);
+            }
+            total += end - start + 1;
+            ranges.add(new long[]{start, end});
+        }
+        if (ranges.isEmpty()) {
+            return UNSATISFIABLE;
+        }
+        if (total > length) {
+            //重叠的范围加起来比整个内容还要大，直接返回完整内容
+            return null;
+        }
+        return ranges.toArray(new long[ranges.size()][]);
+    }
+
+    private static long parseNumber(String value) {
+        if (value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+}
@@ -0,0 +1,55 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.stream.ChunkedInput;
+
+/**
+ * 把ChunkedInput&lt;ByteBuf&gt;读出的每一段包装成HttpContent，这样压缩以及HTTP/2的Stream都能处理。
+ * 和Netty的HttpChunkedInput不同，读完之后不会产生LastHttpContent，响应由LmResponse自己结束
+ * @Author yeonon
+ * @date 2018/12/23 0023 10:05
+ **/
+public class ChunkedContentInput implements ChunkedInput<HttpContent> {
+
+    private final ChunkedInput<ByteBuf> input;
+
+    public ChunkedContentInput(ChunkedInput<ByteBuf> input) {
+        this.input = input;
+    }
+
+    @Override
+    public boolean isEndOfInput() throws Exception {
+        return input.isEndOfInput();
+    }
+
+    @Override
+    public void close() throws Exception {
+        input.close();
+    }
+
+    @Deprecated
+    @Override
+    public HttpContent readChunk(ChannelHandlerContext ctx) throws Exception {
+        return readChunk(ctx.alloc());
+    }
+
+    @Override
+    public HttpContent readChunk(ByteBufAllocator allocator) throws Exception {
+        ByteBuf buf = input.readChunk(allocator);
+        return buf == null ? null : new DefaultHttpContent(buf);
+    }
+
+    @Override
+    public long length() {
+        return input.length();
+    }
+
+    @Override
+    public long progress() {
+        return input.progress();
+    }
+}
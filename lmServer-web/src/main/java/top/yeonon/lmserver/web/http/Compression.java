@@ -0,0 +1,110 @@
+package top.yeonon.lmserver.web.http;
+
+import java.util.Locale;
+
+/**
+ * 响应压缩的配置，以及Accept-Encoding、Content-Type的判断
+ *
+ * 动态内容（JSON、文本）由Pipeline中的LmHttpContentCompressor压缩，静态资源由StaticResources使用预先压缩好的文件或者压缩一次之后缓存
+ * @Author yeonon
+ * @date 2018/12/21 0021 10:00
+ **/
+public final class Compression {
+
+    private static final String DEFAULT_MIME_TYPES = "text/html,text/css,text/plain,text/xml,text/csv,text/markdown,"
+            + "application/json,application/javascript,application/xml,application/manifest+json,image/svg+xml";
+
+    private static volatile boolean enabled = true;
+
+    private static volatile int level = 6;
+
+    private static volatile int minSize = 1024;
+
+    private static volatile String[] mimeTypes = parseMimeTypes(DEFAULT_MIME_TYPES);
+
+    private Compression() {
+    }
+
+    /**
+     * 配置压缩，需要在服务启动之前调用
+     * @param enable 是否开启压缩
+     * @param compressionLevel 压缩级别，1-9
+     * @param compressionMinSize 小于这个大小（字节）的响应不压缩
+     * @param compressionMimeTypes 可以压缩的Content-Type，逗号分隔，text/*这样的写法表示匹配所有text类型，为null使用默认值
+     */
+    public static void configure(boolean enable, int compressionLevel, int compressionMinSize, String compressionMimeTypes) {
+        enabled = enable;
+        level = compressionLevel;
+        minSize = compressionMinSize;
+        mimeTypes = parseMimeTypes(compressionMimeTypes == null ? DEFAULT_MIME_TYPES : compressionMimeTypes);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    public static int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * 判断某个Content-Type是否在允许压缩的列表中（忽略charset等参数）
+     * @param contentType Content-Type
+     * @return 是否可以压缩
+     */
+    public static boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int end = contentType.indexOf(';');
+        String type = (end < 0 ? contentType : contentType.substring(0, end)).trim();
+        for (String mimeType : mimeTypes) {
+            if (mimeType.endsWith("/*")
+                    ? type.regionMatches(true, 0, mimeType, 0, mimeType.length() - 1)
+                    : type.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 判断客户端是否接受某种编码，q=0表示不接受
+     * @param acceptEncoding Accept-Encoding请求头
+     * @param coding 编码，例如gzip
+     * @return 是否接受
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String item : acceptEncoding.split(",")) {
+            int semicolon = item.indexOf(';');
+            String name = (semicolon < 0 ? item : item.substring(0, semicolon)).trim();
+            if (!name.equalsIgnoreCase(coding) && !"*".equals(name)) {
+                continue;
+            }
+            if (semicolon < 0) {
+                return true;
+            }
+            String param = item.substring(semicolon + 1).trim().toLowerCase(Locale.ROOT);
+            if (!param.startsWith("q=")) {
+                return true;
+            }
+            try {
+                return Float.parseFloat(param.substring(2)) > 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static String[] parseMimeTypes(String value) {
+        return value.trim().isEmpty() ? new String[0] : value.trim().split("\\s*,\\s*");
+    }
+}
@@ -0,0 +1,61 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.channel.DefaultFileRegion;
+
+import java.io.File;
+
+/**
+ * LmResponse.setContent(File)发送的文件，每一段内容都是独立的FileRegion，发送的时候才打开文件，发送完成后关闭
+ * @Author yeonon
+ * @date 2018/12/20 0020 09:50
+ **/
+final class FileResource implements LmResource {
+
+    private final File file;
+
+    private final String contentType;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    FileResource(File file, String contentType) {
+        this.file = file;
+        this.contentType = contentType;
+        this.length = file.length();
+        this.lastModified = file.lastModified();
+        this.etag = LmResource.strongEtag(lastModified, length);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String etag() {
+        return etag;
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return true;
+    }
+
+    @Override
+    public Object body(long offset, long length) {
+        return new DefaultFileRegion(file, offset, length);
+    }
+}
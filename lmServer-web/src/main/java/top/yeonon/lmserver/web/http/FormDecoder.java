@@ -0,0 +1,226 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.charset.Charset;
+import java.util.function.BiConsumer;
+
+/**
+ * application/x-www-form-urlencoded格式（以及Query参数）的解码器
+ *
+ * 只扫描一遍：请求体直接在ByteBuf上扫描，不需要先转换成字符串；遇到分隔符就把参数交给调用者，不会产生中间的Map。
+ * 没有转义字符的参数名和参数值直接转换成字符串，有转义的才借助线程复用的缓冲区解码
+ *
+ * multipart格式的请求体仍然使用Netty的HttpPostRequestDecoder
+ * @Author yeonon
+ * @date 2018/12/18 0018 14:25
+ **/
+public final class FormDecoder {
+
+    //参数个数的上限，和Netty的QueryStringDecoder保持一致
+    private static final int MAX_PARAMS = 1024;
+
+    //超过这个大小的缓冲区不复用，避免线程一直持有很大的数组
+    private static final int MAX_SCRATCH_SIZE = 64 * 1024;
+
+    private static final FastThreadLocal<byte[]> SCRATCH = new FastThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[256];
+        }
+    };
+
+    private FormDecoder() {
+    }
+
+    /**
+     * 解码请求体
+     *
+     * @param content 请求体，不会修改其readerIndex
+     * @param charset 字符集
+     * @param sink    接收参数名和参数值
+     */
+    public static void decode(ByteBuf content, Charset charset, BiConsumer<String, String> sink) {
+        int end = content.writerIndex();
+        int nameStart = content.readerIndex();
+        int valueStart = -1;
+        boolean nameEscaped = false;
+        boolean escaped = false;
+        int count = 0;
+        for (int i = nameStart; i <= end; i++) {
+            byte b = i < end ? content.getByte(i) : (byte) '&';
+            if (b == '&') {
+                int nameEnd = valueStart < 0 ? i : valueStart - 1;
+                if (nameEnd > nameStart) {
+                    String name = decodeComponent(content, nameStart, nameEnd, valueStart < 0 ? escaped : nameEscaped, charset);
+                    String value = valueStart < 0 ? "" : decodeComponent(content, valueStart, i, escaped, charset);
+                    sink.accept(name, value);
+                    if (++count >= MAX_PARAMS) {
+                        return;
+                    }
+                }
+                nameStart = i + 1;
+                valueStart = -1;
+                nameEscaped = false;
+                escaped = false;
+            } else if (b == '=' && valueStart < 0) {
+                valueStart = i + 1;
+                nameEscaped = escaped;
+                escaped = false;
+            } else if (b == '%' || b == '+') {
+                escaped = true;
+            }
+        }
+    }
+
+    /**
+     * 解码Query参数
+     *
+     * @param query   包含Query参数的字符串（一般是uri）
+     * @param from    Query参数开始的位置（即'?'的下一个位置）
+     * @param charset 字符集
+     * @param sink    接收参数名和参数值
+     */
+    public static void decode(CharSequence query, int from, Charset charset, BiConsumer<String, String> sink) {
+        int end = query.length();
+        int nameStart = from;
+        int valueStart = -1;
+        boolean nameEscaped = false;
+        boolean escaped = false;
+        int count = 0;
+        for (int i = from; i <= end; i++) {
+            char c = i < end ? query.charAt(i) : '&';
+            if (c == '&' || c == '#') {
+                int nameEnd = valueStart < 0 ? i : valueStart - 1;
+                if (nameEnd > nameStart) {
+                    String name = decodeComponent(query, nameStart, nameEnd, valueStart < 0 ? escaped : nameEscaped, true, charset);
+                    String value = valueStart < 0 ? "" : decodeComponent(query, valueStart, i, escaped, true, charset);
+                    sink.accept(name, value);
+                    if (++count >= MAX_PARAMS) {
+                        return;
+                    }
+                }
+                if (c == '#') {
+                    //片段标识符之后的内容不是参数
+                    return;
+                }
+                nameStart = i + 1;
+                valueStart = -1;
+                nameEscaped = false;
+                escaped = false;
+            } else if (c == '=' && valueStart < 0) {
+                valueStart = i + 1;
+                nameEscaped = escaped;
+                escaped = false;
+            } else if (c == '%' || c == '+') {
+                escaped = true;
+            }
+        }
+    }
+
+    private static String decodeComponent(ByteBuf content, int from, int to, boolean escaped, Charset charset) {
+        if (!escaped) {
+            return content.toString(from, to - from, charset);
+        }
+        byte[] scratch = scratch(to - from);
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            byte b = content.getByte(i);
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && i + 2 < to) {
+                int hi = hexValue(content.getByte(i + 1));
+                int lo = hexValue(content.getByte(i + 2));
+                if (hi >= 0 && lo >= 0) {
+                    b = (byte) ((hi << 4) | lo);
+                    i += 2;
+                }
+            }
+            scratch[n++] = b;
+        }
+        return new String(scratch, 0, n, charset);
+    }
+
+    /**
+     * 解码路径中的一段，只处理%XX转义：'+'在路径中不是空格，要原样保留
+     *
+     * @param segment 路径段
+     * @param charset 字符集
+     * @return 解码之后的值
+     */
+    public static String decodePathSegment(String segment, Charset charset) {
+        if (segment.indexOf('%') < 0) {
+            return segment;
+        }
+        return decodeComponent(segment, 0, segment.length(), true, false, charset);
+    }
+
+    private static String decodeComponent(CharSequence s, int from, int to, boolean escaped, boolean plusAsSpace,
+                                          Charset charset) {
+        if (!escaped) {
+            return s.subSequence(from, to).toString();
+        }
+        StringBuilder sb = new StringBuilder(to - from);
+        byte[] scratch = null;
+        int i = from;
+        while (i < to) {
+            char c = s.charAt(i);
+            if (c == '+' && plusAsSpace) {
+                sb.append(' ');
+                i++;
+            } else if (c == '%') {
+                //连续的转义字符一起解码，多字节的UTF-8字符才能正确还原
+                if (scratch == null) {
+                    scratch = scratch((to - i) / 3 + 1);
+                }
+                int n = 0;
+                while (i + 2 < to && s.charAt(i) == '%') {
+                    int hi = hexValue(s.charAt(i + 1));
+                    int lo = hexValue(s.charAt(i + 2));
+                    if (hi < 0 || lo < 0) {
+                        break;
+                    }
+                    scratch[n++] = (byte) ((hi << 4) | lo);
+                    i += 3;
+                }
+                if (n == 0) {
+                    //不合法的转义，原样保留
+                    sb.append('%');
+                    i++;
+                } else {
+                    sb.append(new String(scratch, 0, n, charset));
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] scratch(int size) {
+        if (size > MAX_SCRATCH_SIZE) {
+            return new byte[size];
+        }
+        byte[] scratch = SCRATCH.get();
+        if (scratch.length < size) {
+            scratch = new byte[Math.max(size, scratch.length * 2)];
+            SCRATCH.set(scratch);
+        }
+        return scratch;
+    }
+
+    private static int hexValue(int c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,218 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * 流式请求体，开启了streaming的路由不会把请求体聚合成一个完整的请求，而是一边接收一边交给处理方法读取
+ *
+ * 背压：缓存的数据超过高水位的时候会关闭该连接的autoRead，不再从Socket读取数据，处理方法读到低水位以下再重新打开
+ *
+ * 读取是阻塞的，所以只能在工作线程中读取（streaming的路由默认就会放到工作线程池执行），在IO线程中读取会直接抛出异常
+ * @Author yeonon
+ * @date 2018/12/16 0016 14:10
+ **/
+public class LmBodyStream extends InputStream {
+
+    private final Channel channel;
+
+    //请求体的最大长度，超过之后读取会抛出异常
+    private final long maxSize;
+
+    private final int highWaterMark;
+    private final int lowWaterMark;
+
+    private final ArrayDeque<ByteBuf> chunks = new ArrayDeque<>();
+
+    //已经缓存但还没有被读取的字节数
+    private long buffered;
+    //一共收到的字节数
+    private long received;
+
+    private boolean finished;
+    private boolean closed;
+    private boolean paused;
+    private IOException error;
+
+    public LmBodyStream(Channel channel, long maxSize, int highWaterMark) {
+        this.channel = channel;
+        this.maxSize = maxSize;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = highWaterMark / 2;
+    }
+
+    /**
+     * 收到一块数据（在IO线程中调用），调用之后Buffer由该对象负责释放
+     *
+     * @param chunk 数据
+     * @return 是否超过了最大长度
+     */
+    public synchronized boolean offer(ByteBuf chunk) {
+        int size = chunk.readableBytes();
+        received += size;
+        if (received > maxSize) {
+            chunk.release();
+            fail(new IOException("request body is too large, max size : " + maxSize));
+            return false;
+        }
+        if (closed || error != null || size == 0) {
+            chunk.release();
+            return true;
+        }
+        chunks.add(chunk);
+        buffered += size;
+        if (buffered >= highWaterMark && !paused) {
+            paused = true;
+            channel.config().setAutoRead(false);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * 请求体已经全部收到
+     */
+    public synchronized void finish() {
+        finished = true;
+        notifyAll();
+    }
+
+    /**
+     * 出现异常（例如连接已经关闭），正在等待数据的读取会抛出该异常
+     *
+     * @param cause 异常
+     */
+    public synchronized void fail(IOException cause) {
+        if (error == null) {
+            error = cause;
+        }
+        releaseChunks();
+        notifyAll();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] one = new byte[1];
+        int n = read(one, 0, 1);
+        return n < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuf chunk = awaitChunk();
+        if (chunk == null) {
+            return -1;
+        }
+        int n = Math.min(len, chunk.readableBytes());
+        chunk.readBytes(b, off, n);
+        consumed(chunk, n);
+        return n;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            ByteBuf chunk = awaitChunk();
+            if (chunk == null) {
+                break;
+            }
+            int step = (int) Math.min(n - skipped, chunk.readableBytes());
+            chunk.skipBytes(step);
+            consumed(chunk, step);
+            skipped += step;
+        }
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(Integer.MAX_VALUE, buffered);
+    }
+
+    /**
+     * 关闭之后后续收到的数据会被直接丢弃
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        releaseChunks();
+        notifyAll();
+    }
+
+    /**
+     * @return ReadableByteChannel形式的视图
+     */
+    public ReadableByteChannel channel() {
+        return Channels.newChannel(this);
+    }
+
+    /**
+     * @return 目前一共收到的字节数
+     */
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    private ByteBuf awaitChunk() throws IOException {
+        while (true) {
+            if (error != null) {
+                throw error;
+            }
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            ByteBuf chunk = chunks.peek();
+            if (chunk != null) {
+                return chunk;
+            }
+            if (finished) {
+                return null;
+            }
+            if (channel.eventLoop().inEventLoop()) {
+                //在IO线程里等待数据会导致死锁，数据本身也需要IO线程来接收
+                throw new IllegalStateException("can't block on request body in the event loop, mark the handler as @Blocking");
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for request body");
+            }
+        }
+    }
+
+    private void consumed(ByteBuf chunk, int n) {
+        buffered -= n;
+        if (!chunk.isReadable()) {
+            chunks.poll();
+            chunk.release();
+        }
+        resumeIfNeeded();
+    }
+
+    private void releaseChunks() {
+        ByteBuf chunk;
+        while ((chunk = chunks.poll()) != null) {
+            chunk.release();
+        }
+        buffered = 0;
+        resumeIfNeeded();
+    }
+
+    private void resumeIfNeeded() {
+        if (paused && buffered <= lowWaterMark) {
+            paused = false;
+            channel.config().setAutoRead(true);
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package top.yeonon.lmserver.web.http;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.ServerCookieDecoder;
 import io.netty.handler.codec.http.multipart.Attribute;
+import io.netty.handler.codec.http.multipart.DefaultHttpDataFactory;
+import io.netty.handler.codec.http.multipart.DiskAttribute;
+import io.netty.handler.codec.http.multipart.DiskFileUpload;
+import io.netty.handler.codec.http.multipart.FileUpload;
+import io.netty.handler.codec.http.multipart.HttpDataFactory;
 import io.netty.handler.codec.http.multipart.HttpPostRequestDecoder;
 import io.netty.handler.codec.http.multipart.InterfaceHttpData;
+import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @Author yeonon
@@ -22,80 +32,111 @@ import java.util.Set;
  **/
 public class LmRequest {
 
-    private FullHttpRequest nettyRequest;
+    //解析表单和上传文件用的，小于阈值的保存在内存中，超过的写到临时文件
+    private static volatile HttpDataFactory dataFactory = new DefaultHttpDataFactory(DefaultHttpDataFactory.MINSIZE);
 
+    //普通的请求是聚合好的FullHttpRequest，流式请求只有请求行和请求头，请求体通过bodyStream读取
+    private final HttpRequest nettyRequest;
+    private final ChannelHandlerContext ctx;
+    private final LmBodyStream bodyStream;
 
-    private String path;
+    //请求体的解码器，上传的文件在请求处理完之前都不能释放，所以解码器要一直保留到release的时候
+    private HttpPostRequestDecoder postDecoder;
+
+    //引用计数，为0的时候释放底层请求以及上传的临时文件
+    private final AtomicInteger refCnt = new AtomicInteger(1);
+
+    private final String path;
     private String ip;
+    private LMHttpMethod method;
 
-    private Map<String, Object> params = new HashMap<>();
-    private Map<String, String> headers = new HashMap<>();
-    private Map<String, Cookie> cookies = new HashMap<>();
+    //以下内容都是在第一次使用的时候才解析，大部分请求根本用不到cookie和请求体
+    private Map<String, List<String>> params;
+    private Map<String, Cookie> cookies;
+    private Map<String, List<LmUploadedFile>> files;
 
+    //路径变量，由路由匹配的时候填充
+    private Map<String, String> pathVariables = Collections.emptyMap();
 
-    private LmRequest(ChannelHandlerContext ctx, FullHttpRequest nettyRequest) {
+
+    private LmRequest(ChannelHandlerContext ctx, HttpRequest nettyRequest, LmBodyStream bodyStream,
+                      HttpPostRequestDecoder postDecoder) {
+        this.ctx = ctx;
         this.nettyRequest = nettyRequest;
-        final String uri = nettyRequest.uri();
-        this.putHeadersAndCookies(nettyRequest.headers());
-        this.putParams(new QueryStringDecoder(uri));
+        this.bodyStream = bodyStream;
+        this.postDecoder = postDecoder;
+        this.path = parsePath(nettyRequest.uri());
+    }
 
-        //可能会是Post请求（Post请求也有可能带有Query参数，故Query参数是必须要获取的）
-        if (nettyRequest.method() != HttpMethod.GET) {
-            HttpPostRequestDecoder postRequestDecoder = null;
-            try {
-                postRequestDecoder = new HttpPostRequestDecoder(nettyRequest);
-                this.putParams(postRequestDecoder);
-            } finally {
-                if (postRequestDecoder != null) {
-                    postRequestDecoder.destroy();
-                }
-            }
+    /**
+     * 配置文件上传，需要在服务启动之前调用
+     *
+     * @param memoryThreshold 超过该大小（字节）的表单数据写到临时文件中
+     * @param tempDir         临时文件目录，为null则使用系统的临时目录
+     */
+    public static void configureUploads(long memoryThreshold, String tempDir) {
+        if (tempDir != null) {
+            DiskFileUpload.baseDirectory = tempDir;
+            DiskAttribute.baseDirectory = tempDir;
         }
+        DiskFileUpload.deleteOnExitTemporaryFile = true;
+        DiskAttribute.deleteOnExitTemporaryFile = true;
+        dataFactory = new DefaultHttpDataFactory(memoryThreshold);
+    }
 
-        this.putIp(ctx);
-        this.putPath(uri);
+    public static HttpDataFactory getDataFactory() {
+        return dataFactory;
     }
 
 
     /**
-     * 设置路径
+     * 解析路径
      */
-    private void putPath(final String uri) {
-        int index = uri.indexOf("?");
+    private static String parsePath(final String uri) {
+        int index = uri.indexOf('?');
         if (index < 0) {
-            this.path = uri;
-        } else {
-            this.path = uri.substring(0, index);
+            return uri;
         }
-    }
-
-    /**
-     * 设置Ip
-     *
-     * @param ctx channelHandler上下文
-     */
-    private void putIp(ChannelHandlerContext ctx) {
-        InetSocketAddress address = (InetSocketAddress) ctx.channel().remoteAddress();
-        this.ip = address.getAddress().getHostAddress();
+        return uri.substring(0, index);
     }
 
 
     //参数相关内容
 
     /**
-     * 从uri中解析Query 参数
-     *
-     * @param queryStringDecoder 参数解码器
+     * 第一次获取参数的时候才去解析Query参数和请求体
      */
-    protected void putParams(QueryStringDecoder queryStringDecoder) {
-        if (queryStringDecoder != null) {
-            Map<String, List<String>> parameters = queryStringDecoder.parameters();
-            for (String paramName : parameters.keySet()) {
-                if (parameters.get(paramName).size() == 1) {
-                    params.put(paramName, parameters.get(paramName).get(0));
+    private Map<String, List<String>> params() {
+        if (params == null) {
+            params = new HashMap<>();
+            files = new HashMap<>();
+            String uri = nettyRequest.uri();
+            int index = uri.indexOf('?');
+            if (index >= 0) {
+                FormDecoder.decode(uri, index + 1, CharsetUtil.UTF_8, this::putParam);
+            }
+
+            //可能会是Post请求（Post请求也有可能带有Query参数，故Query参数是必须要获取的）
+            //流式请求的请求体由处理方法自己读取，这里不解析；上传文件的请求在接收的时候就已经解码好了
+            if (postDecoder == null && nettyRequest.method() != HttpMethod.GET && nettyRequest instanceof FullHttpRequest) {
+                if (HttpPostRequestDecoder.isMultipart(nettyRequest)) {
+                    postDecoder = new HttpPostRequestDecoder(dataFactory, nettyRequest);
+                } else if (isFormBody()) {
+                    //普通的表单直接在请求体的ByteBuf上解码，不需要创建HttpPostRequestDecoder
+                    FormDecoder.decode(((FullHttpRequest) nettyRequest).content(),
+                            HttpUtil.getCharset(nettyRequest, CharsetUtil.UTF_8), this::putParam);
                 }
             }
+            this.putParams(postDecoder);
         }
+        return params;
+    }
+
+    /**
+     * 请求体是否按表单解析，没有Content-Type的请求体也当作表单处理
+     */
+    private boolean isFormBody() {
+        return isXWwwFormUrlencoded() || !nettyRequest.headers().contains(HttpHeaderNames.CONTENT_TYPE);
     }
 
     /**
@@ -128,24 +169,73 @@ public class LmRequest {
             } catch (IOException e) {
                 e.printStackTrace();
             }
+        } else if (dataType == InterfaceHttpData.HttpDataType.FileUpload) {
+            FileUpload upload = (FileUpload) data;
+            if (upload.isCompleted()) {
+                files.computeIfAbsent(upload.getName(), name -> new ArrayList<>(1)).add(new LmUploadedFile(upload));
+            }
         }
     }
 
     /**
-     * 直接填加参数
+     * 直接填加参数，同名参数会保留所有的值
      *
      * @param key 参数名
      * @param val 参数值
      */
-    protected void putParam(String key, Object val) {
-        this.params.put(key, val);
+    protected void putParam(String key, String val) {
+        List<String> values = this.params.get(key);
+        if (values == null) {
+            //绝大多数参数都只有一个值
+            values = new ArrayList<>(1);
+            this.params.put(key, values);
+        }
+        values.add(val);
+    }
+
+    /**
+     * @return 参数的Map，值是该参数的所有值
+     */
+    public Map<String, List<String>> getParams() {
+        return this.params();
+    }
+
+    /**
+     * 获取上传的文件
+     *
+     * @param name 表单中的字段名
+     * @return 上传的文件，没有则返回null
+     */
+    public LmUploadedFile getFile(String name) {
+        params();
+        List<LmUploadedFile> values = files.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * 获取同名的所有上传文件
+     *
+     * @param name 表单中的字段名
+     * @return 上传的文件列表（不会为null）
+     */
+    public List<LmUploadedFile> getFiles(String name) {
+        params();
+        List<LmUploadedFile> values = files.get(name);
+        return values == null ? Collections.emptyList() : values;
     }
 
     /**
-     * @return 参数的Map
+     * 获取同名参数的所有值
+     *
+     * @param paramName 参数名
+     * @return 参数值列表（不会为null）
      */
-    public Map<String, Object> getParams() {
-        return this.params;
+    public List<String> getParamValues(String paramName) {
+        List<String> values = params().get(paramName);
+        if (values == null) {
+            return Collections.emptyList();
+        }
+        return values;
     }
 
     /**
@@ -155,7 +245,16 @@ public class LmRequest {
      * @return 参数值
      */
     public Object getParam(String paramName) {
-        return params.get(paramName);
+        //路径变量优先，这样/users/{id}中的id也可以直接绑定到方法参数上
+        String pathVariable = pathVariables.get(paramName);
+        if (pathVariable != null) {
+            return pathVariable;
+        }
+        List<String> values = params().get(paramName);
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        return values.get(0);
     }
 
 
@@ -275,64 +374,169 @@ public class LmRequest {
         return this.path;
     }
 
+    /**
+     * 设置路径变量
+     *
+     * @param pathVariables 路由匹配得到的路径变量
+     */
+    public void setPathVariables(Map<String, String> pathVariables) {
+        this.pathVariables = pathVariables;
+    }
 
-    // 请求头相关(包含cookie)
+    /**
+     * @return 路径变量的Map
+     */
+    public Map<String, String> getPathVariables() {
+        return pathVariables;
+    }
 
     /**
-     * 从Netty提供的HttpHeaders里提取出header和cookie
+     * 根据名称获取路径变量，例如路由/users/{id}中的id
      *
-     * @param headers netty 提供的headers 包含诸多信息
+     * @param name 路径变量名称
+     * @return 路径变量的值
      */
-    public void putHeadersAndCookies(HttpHeaders headers) {
-        //填充头部
-        for (Map.Entry<String, String> entry : headers) {
-            this.headers.put(entry.getKey(), entry.getValue());
-        }
+    public String getPathVariable(String name) {
+        return pathVariables.get(name);
+    }
 
-        final String cookieString = this.headers.get(HttpHeaderNames.COOKIE.toString());
-        if (StringUtils.isNotBlank(cookieString)) {
-            final Set<Cookie> cookies = ServerCookieDecoder.LAX.decode(cookieString);
-            for (Cookie cookie : cookies) {
-                this.cookies.put(cookie.name(), cookie);
-            }
+    /**
+     * 获取客户端Ip
+     *
+     * @return Ip
+     */
+    public String getIp() {
+        if (ip == null) {
+            InetSocketAddress address = (InetSocketAddress) ctx.channel().remoteAddress();
+            ip = address.getAddress().getHostAddress();
         }
+        return ip;
     }
 
+
+    // 请求头相关(包含cookie)
+
     /**
-     * @return headers Map
+     * 直接返回Netty的请求头，不做任何拷贝，字段名称不区分大小写
+     *
+     * @return headers
      */
-    public Map<String, String> getHeaders() {
-        return this.headers;
+    public HttpHeaders getHeaders() {
+        return nettyRequest.headers();
     }
 
     /**
-     * 根据Key 获取 Value
+     * 根据Key 获取 Value，Key不区分大小写，推荐使用HttpHeaderNames中的AsciiString常量
      *
      * @param headName 请求头字段名称
      * @return 请求头字段名称对应的值
      */
-    public String getHeader(String headName) {
-        return this.headers.get(headName);
+    public String getHeader(CharSequence headName) {
+        return nettyRequest.headers().get(headName);
+    }
+
+    /**
+     * 第一次获取cookie的时候才去解码
+     */
+    private Map<String, Cookie> cookies() {
+        if (cookies == null) {
+            final String cookieString = getHeader(HttpHeaderNames.COOKIE);
+            if (StringUtils.isBlank(cookieString)) {
+                cookies = Collections.emptyMap();
+            } else {
+                cookies = new HashMap<>();
+                for (Cookie cookie : ServerCookieDecoder.LAX.decode(cookieString)) {
+                    cookies.put(cookie.name(), cookie);
+                }
+            }
+        }
+        return cookies;
+    }
+
+    /**
+     * @return cookie Map
+     */
+    public Map<String, Cookie> getCookies() {
+        return cookies();
+    }
+
+    /**
+     * 根据名称获取cookie
+     *
+     * @param cookieName cookie名称
+     * @return cookie，不存在则返回null
+     */
+    public Cookie getCookie(String cookieName) {
+        return cookies().get(cookieName);
     }
 
 
     //实用API
 
+    /**
+     * 增加底层请求的引用计数，请求需要在当前Handler返回之后继续使用（例如异步处理）的时候调用，用完之后要调用release
+     *
+     * @return 本身
+     */
+    public LmRequest retain() {
+        refCnt.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * 减少引用计数，和retain成对使用。为0的时候释放底层请求，删除上传文件的临时文件，并丢弃没有读完的流式请求体。
+     * 异步的处理方法会持有引用直到返回值完成，所以请求体在这之前仍然可以读取
+     *
+     * @return 引用计数是否已经为0（请求已经被释放）
+     */
+    public boolean release() {
+        if (refCnt.decrementAndGet() != 0) {
+            return false;
+        }
+        if (postDecoder != null) {
+            postDecoder.destroy();
+        }
+        if (bodyStream != null) {
+            bodyStream.close();
+        }
+        ReferenceCountUtil.release(nettyRequest);
+        return true;
+    }
+
+    /**
+     * 获取聚合好的请求体，不会修改其readerIndex，也不需要调用者释放
+     *
+     * @return 请求体，流式请求返回null
+     */
+    public ByteBuf getContent() {
+        if (nettyRequest instanceof FullHttpRequest) {
+            return ((FullHttpRequest) nettyRequest).content();
+        }
+        return null;
+    }
+
+    /**
+     * 获取流式请求体，只有开启了streaming的路由才有
+     *
+     * @return 请求体的流，普通请求返回null
+     */
+    public LmBodyStream getBodyStream() {
+        return bodyStream;
+    }
+
     /**
      * 判断是否是长连接
      *
      * @return 是否是长连接
      */
     public boolean isKeepAlive() {
-        final String connection = getHeader(HttpHeaderNames.CONNECTION.toString());
-
-        //connection为false，即应该是关闭的，故无论如何（即使确实是长连接），都要返回false
-        if (HttpHeaderValues.CLOSE.toString().equalsIgnoreCase(connection)) {
+        //connection为close，即应该是关闭的，故无论如何（即使确实是长连接），都要返回false
+        if (nettyRequest.headers().containsValue(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE, true)) {
             return false;
         }
 
         //Http1.0 没有长连接，直接返回False
-        if (HttpVersion.HTTP_1_0.text().equalsIgnoreCase(getProtocolVersion().toString())) {
+        if (getProtocolVersion() == HttpVersion.HTTP_1_0) {
             return false;
         }
 
@@ -341,13 +545,9 @@ public class LmRequest {
     }
 
     public boolean isXWwwFormUrlencoded() {
-
-        String contentTypeValue = this.getHeader("Content-Type");
-        if (StringUtils.isBlank(contentTypeValue)) {
-            return false;
-        }
-        return contentTypeValue.
-                equalsIgnoreCase(HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.toString());
+        CharSequence mimeType = HttpUtil.getMimeType(nettyRequest);
+        return mimeType != null &&
+                HttpHeaderValues.APPLICATION_X_WWW_FORM_URLENCODED.contentEqualsIgnoreCase(mimeType);
     }
 
 
@@ -375,7 +575,10 @@ public class LmRequest {
      * @return 请求方法
      */
     public LMHttpMethod getMethod() {
-        return LMHttpMethod.getMethod(nettyRequest.method().name());
+        if (method == null) {
+            method = LMHttpMethod.getMethod(nettyRequest.method().name());
+        }
+        return method;
     }
 
     /**
@@ -428,7 +631,31 @@ public class LmRequest {
      * @return LmRequest
      */
     public static LmRequest build(ChannelHandlerContext ctx, FullHttpRequest nettyRequest) {
-        return new LmRequest(ctx, nettyRequest);
+        return new LmRequest(ctx, nettyRequest, null, null);
+    }
+
+    /**
+     * 构建上传文件请求的LmRequest，请求体已经在接收的时候解码好了
+     *
+     * @param ctx          ChannelHandlerContext
+     * @param nettyRequest 只包含请求行和请求头的HttpRequest
+     * @param postDecoder  已经接收完所有数据的解码器，会在release的时候销毁
+     * @return LmRequest
+     */
+    public static LmRequest build(ChannelHandlerContext ctx, HttpRequest nettyRequest, HttpPostRequestDecoder postDecoder) {
+        return new LmRequest(ctx, nettyRequest, null, postDecoder);
+    }
+
+    /**
+     * 构建流式请求的LmRequest
+     *
+     * @param ctx          ChannelHandlerContext
+     * @param nettyRequest 只包含请求行和请求头的HttpRequest
+     * @param bodyStream   请求体
+     * @return LmRequest
+     */
+    public static LmRequest build(ChannelHandlerContext ctx, HttpRequest nettyRequest, LmBodyStream bodyStream) {
+        return new LmRequest(ctx, nettyRequest, bodyStream, null);
     }
 
 
@@ -0,0 +1,62 @@
+package top.yeonon.lmserver.web.http;
+
+import java.io.IOException;
+
+/**
+ * 带有校验信息（ETag、Last-Modified）、可以按范围发送的响应内容，例如文件、缓存在内存中的静态资源
+ *
+ * LmResponse用它来处理条件请求（304）以及Range请求（206），不需要读取内容就能判断是否需要发送
+ * @Author yeonon
+ * @date 2018/12/20 0020 09:30
+ **/
+public interface LmResource {
+
+    /**
+     * @return Content-Type
+     */
+    String contentType();
+
+    /**
+     * @return 内容的总长度
+     */
+    long length();
+
+    /**
+     * @return 最后修改时间（毫秒），未知返回0
+     */
+    long lastModified();
+
+    /**
+     * @return ETag（包含引号，弱校验的以W/开头），没有返回null
+     */
+    String etag();
+
+    /**
+     * @return 是否支持Range请求
+     */
+    boolean isRangeSupported();
+
+    /**
+     * 获取一段内容，可以是ByteBuf、FileRegion或者ChunkedInput&lt;ByteBuf&gt;，发送之后由Netty释放
+     *
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 响应体
+     * @throws IOException 打开文件失败
+     */
+    Object body(long offset, long length) throws IOException;
+
+    /**
+     * 根据最后修改时间和长度生成强校验的ETag，同一个文件版本的ETag不变
+     */
+    static String strongEtag(long lastModified, long length) {
+        return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+    }
+
+    /**
+     * 弱校验的ETag，用于修改时间不够精确的内容（例如jar中的文件）
+     */
+    static String weakEtag(long lastModified, long length) {
+        return "W/" + strongEtag(lastModified, length);
+    }
+}
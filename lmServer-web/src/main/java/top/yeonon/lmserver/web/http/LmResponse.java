@@ -1,23 +1,29 @@
 package top.yeonon.lmserver.web.http;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.DateFormatter;
 import io.netty.handler.codec.http.*;
 import io.netty.handler.codec.http.cookie.Cookie;
 import io.netty.handler.codec.http.cookie.DefaultCookie;
 import io.netty.handler.codec.http.cookie.ServerCookieEncoder;
-import io.netty.util.CharsetUtil;
+import io.netty.util.ReferenceCountUtil;
 import org.apache.log4j.Logger;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * @Author yeonon
@@ -45,6 +51,7 @@ public class LmResponse {
 
 
     private Object content = Unpooled.EMPTY_BUFFER;
+    //响应头直接交给Netty的响应对象使用，不再复制一次。头部的值经常来自请求数据（跳转地址、文件名等），需要校验，防止响应拆分
     private HttpHeaders headers = new DefaultHttpHeaders();
     private Set<Cookie> cookies = new HashSet<>();
     private HttpVersion httpVersion = HttpVersion.HTTP_1_1;
@@ -55,10 +62,16 @@ public class LmResponse {
     private ChannelHandlerContext ctx;
     private LmRequest lmRequest;
     private boolean isSent;
+    //是否允许压缩该响应
+    private boolean compress = true;
+    //对应请求在该连接上的序号，用于管线化的时候保证响应的顺序，-1表示不需要排序
+    private final int sequence;
 
     private LmResponse(ChannelHandlerContext ctx, LmRequest lmRequest) {
         this.ctx = ctx;
         this.lmRequest = lmRequest;
+        Integer current = ctx.channel().attr(PipelinedMessage.SEQUENCE).get();
+        this.sequence = current == null ? -1 : current;
 
         //默认添加一些请求头
         headers.set(HttpHeaderNames.CONTENT_TYPE, contentType);
@@ -144,6 +157,17 @@ public class LmResponse {
         return this;
     }
 
+    /**
+     * 设置是否允许压缩响应，默认允许（还需要开启compression配置，并且Content-Type在允许压缩的列表中）
+     *
+     * @param compress 是否允许压缩
+     * @return 本身
+     */
+    public LmResponse setCompress(boolean compress) {
+        this.compress = compress;
+        return this;
+    }
+
     /**
      * 设置长连接
      *
@@ -189,46 +213,63 @@ public class LmResponse {
     }
 
     /**
-     * 设置返回文本内容，基于Netty，故使用ByteBuf包装
+     * 设置返回文本内容，文本直接以UTF-8编码写入Channel的（池化）Buffer中，不会产生中间的byte[]
      *
      * @param content 返回内容
      * @return 本身
      */
     public LmResponse setContent(String content) {
-        this.content = Unpooled.copiedBuffer(content, CharsetUtil.UTF_8);
+        replaceContent(ByteBufUtil.writeUtf8(ctx.alloc(), content));
         this.setContentType(ContentTypeValue.PLAIN_CONTENT);
         return this;
     }
 
     /**
-     * 设置返回的Buffer
+     * 设置返回的Buffer，发送之后Buffer会被释放
      *
      * @param content ByteBuf类型
      * @return 本身
      */
     public LmResponse setContent(ByteBuf content) {
-        this.content = content;
+        replaceContent(content);
         this.setContentType(ContentTypeValue.JSON_CONTENT);
         return this;
     }
 
     /**
-     * 设置返回的Buffer
+     * 设置返回的字节数组，会复制到Channel分配的Buffer中
      *
-     * @param content ByteBuf类型
+     * @param content 字节数组
      * @return 本身
      */
     public LmResponse setContent(byte[] content) {
-        this.content = Unpooled.copiedBuffer(content);
+        replaceContent(ctx.alloc().ioBuffer(content.length).writeBytes(content));
         this.setContentType(ContentTypeValue.JSON_CONTENT);
         return this;
     }
 
+    /**
+     * 设置返回的文件，Content-Type根据文件扩展名设置，发送时使用FileRegion零拷贝
+     *
+     * @param file 文件
+     * @return 本身
+     */
     public LmResponse setContent(File file) {
-        this.content = file;
+        replaceContent(file);
+        this.setContentType(MimeTypes.of(file.getName()));
         return this;
     }
 
+    /**
+     * 替换响应内容，之前设置过但还没有发送的Buffer要释放掉
+     */
+    private void replaceContent(Object newContent) {
+        if (this.content != newContent) {
+            ReferenceCountUtil.release(this.content);
+        }
+        this.content = newContent;
+    }
+
 
     /**
      * 转换成Netty支持的Response
@@ -237,32 +278,31 @@ public class LmResponse {
      */
     private FullHttpResponse toFullHttpResponse() {
         ByteBuf buf = (ByteBuf) content;
-        final FullHttpResponse fullHttpResponse = new DefaultFullHttpResponse(httpVersion, status, buf);
-
-        //设置Headers
-        final HttpHeaders httpHeaders = fullHttpResponse.headers();
+        //Buffer交给了FullHttpResponse，之后再设置内容的时候不能再释放它
+        this.content = Unpooled.EMPTY_BUFFER;
         setContentLength(buf.readableBytes());
-        httpHeaders.add(this.headers);
-
-        //设置cookies
-        for (Cookie cookie : this.cookies) {
-            httpHeaders.add(HttpHeaderNames.SET_COOKIE.toString(), ServerCookieEncoder.LAX.encode(cookie));
-        }
-
-        return fullHttpResponse;
+        prepareHeaders();
+        //直接使用已经设置好的Headers，不再复制
+        return new DefaultFullHttpResponse(httpVersion, status, buf, headers, EmptyHttpHeaders.INSTANCE);
     }
 
     private HttpResponse toDefaultHttpResponse() {
-        final HttpResponse httpResponse = new DefaultHttpResponse(httpVersion, status);
-        //设置Headers
-        final HttpHeaders httpHeaders = httpResponse.headers();
-        httpHeaders.add(this.headers);
+        prepareHeaders();
+        return new DefaultHttpResponse(httpVersion, status, headers);
+    }
 
-        //设置cookies
+    private void prepareHeaders() {
+        if (!compress && Compression.isEnabled() && !headers.contains(HttpHeaderNames.CONTENT_ENCODING)) {
+            //LmHttpContentCompressor看到identity就不会压缩，并且会去掉这个标记
+            headers.set(HttpHeaderNames.CONTENT_ENCODING, HttpHeaderValues.IDENTITY);
+        }
+        addCookieHeaders();
+    }
+
+    private void addCookieHeaders() {
         for (Cookie cookie : this.cookies) {
-            httpHeaders.add(HttpHeaderNames.SET_COOKIE.toString(), ServerCookieEncoder.LAX.encode(cookie));
+            headers.add(HttpHeaderNames.SET_COOKIE, ServerCookieEncoder.LAX.encode(cookie));
         }
-        return httpResponse;
     }
 
     /**
@@ -271,13 +311,14 @@ public class LmResponse {
      * @return ChannelFuture
      */
     public ChannelFuture send() {
-        ChannelFuture future = null;
+        ChannelFuture future;
         if (content instanceof File) {
             File file = (File) content;
             try {
                 future = sendFile(file);
             } catch (IOException e) {
                 log.error(e.toString());
+                future = sendError("文件不存在", HttpResponseStatus.NOT_FOUND);
             }
         } else {
             future = sendFull();
@@ -294,21 +335,242 @@ public class LmResponse {
      * @throws IOException
      */
     private ChannelFuture sendFile(File file) throws IOException {
+        if (!file.isFile()) {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return send(new FileResource(file, contentType));
+    }
+
+    /**
+     * 发送文件类的内容，会带上ETag和Last-Modified，并处理条件请求和Range请求：
+     * 1. If-None-Match或者If-Modified-Since匹配的时候返回304，不会读取内容
+     * 2. Range请求返回206，多个范围使用multipart/byteranges，没有一个范围满足的时候返回416
+     * 3. If-Range和当前版本不匹配的时候忽略Range，返回完整内容
+     *
+     * @param resource 内容
+     * @return ChannelFuture
+     * @throws IOException 读取内容失败
+     */
+    public ChannelFuture send(LmResource resource) throws IOException {
+        long length = resource.length();
+        String etag = resource.etag();
+        long lastModified = resource.lastModified();
+        setContentType(resource.contentType());
+        if (etag != null) {
+            headers.set(HttpHeaderNames.ETAG, etag);
+        }
+        if (lastModified > 0) {
+            headers.set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(lastModified)));
+        }
+        if (resource.isRangeSupported()) {
+            headers.set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        }
+        if (!HttpResponseStatus.OK.equals(status)) {
+            //用户自己设置了状态码（例如用文件作为错误页面），不处理条件请求和Range
+            return send(body(resource, 0, length), length);
+        }
+        if (isNotModified(etag, lastModified)) {
+            setStatus(HttpResponseStatus.NOT_MODIFIED);
+            headers.remove(HttpHeaderNames.CONTENT_TYPE);
+            return send(Collections.emptyList(), -1);
+        }
+        long[][] ranges = null;
+        if (resource.isRangeSupported() && isRangeApplicable(etag, lastModified)) {
+            ranges = ByteRanges.parse(lmRequest.getHeader(HttpHeaderNames.RANGE), length);
+        }
+        if (ranges == null) {
+            return send(body(resource, 0, length), length);
+        }
+        if (ranges.length == 0) {
+            setStatus(HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+            headers.set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + length);
+            headers.remove(HttpHeaderNames.CONTENT_TYPE);
+            return send(Collections.emptyList(), 0);
+        }
+        setStatus(HttpResponseStatus.PARTIAL_CONTENT);
+        if (ranges.length == 1) {
+            long start = ranges[0][0];
+            long count = ranges[0][1] - start + 1;
+            headers.set(HttpHeaderNames.CONTENT_RANGE, contentRange(ranges[0], length));
+            return send(body(resource, start, count), count);
+        }
+        return sendMultipartRanges(resource, ranges, length);
+    }
+
+    /**
+     * 多个范围，响应体是multipart/byteranges，每一段都带有自己的Content-Type和Content-Range
+     */
+    private ChannelFuture sendMultipartRanges(LmResource resource, long[][] ranges, long length) throws IOException {
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong())
+                + Long.toHexString(ThreadLocalRandom.current().nextLong());
+        String partContentType = resource.contentType();
+        boolean head = isHead();
+        List<Object> bodies = new ArrayList<>(ranges.length * 2 + 1);
+        long contentLength = 0;
+        try {
+            for (long[] range : ranges) {
+                String partHeader = "\r\n--" + boundary + "\r\n"
+                        + HttpHeaderNames.CONTENT_TYPE + ": " + partContentType + "\r\n"
+                        + HttpHeaderNames.CONTENT_RANGE + ": " + contentRange(range, length) + "\r\n\r\n";
+                long count = range[1] - range[0] + 1;
+                contentLength += partHeader.length() + count;
+                if (!head) {
+                    bodies.add(ByteBufUtil.writeAscii(ctx.alloc(), partHeader));
+                    bodies.add(resource.body(range[0], count));
+                }
+            }
+            String end = "\r\n--" + boundary + "--\r\n";
+            contentLength += end.length();
+            if (!head) {
+                bodies.add(ByteBufUtil.writeAscii(ctx.alloc(), end));
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Object body : bodies) {
+                ReferenceCountUtil.release(body);
+            }
+            throw e;
+        }
+        setContentType("multipart/byteranges; boundary=" + boundary);
+        return send(bodies, contentLength);
+    }
+
+    /**
+     * HEAD请求只发送响应头，不需要获取内容
+     */
+    private Object body(LmResource resource, long offset, long length) throws IOException {
+        return isHead() ? null : resource.body(offset, length);
+    }
+
+    private boolean isHead() {
+        return lmRequest.getMethod() == LmRequest.LMHttpMethod.HEAD;
+    }
+
+    private static String contentRange(long[] range, long length) {
+        return "bytes " + range[0] + "-" + range[1] + "/" + length;
+    }
+
+    /**
+     * 条件请求：有If-None-Match的时候只看ETag（弱比较），否则看If-Modified-Since
+     */
+    private boolean isNotModified(String etag, long lastModified) {
+        LmRequest.LMHttpMethod method = lmRequest.getMethod();
+        if (method != LmRequest.LMHttpMethod.GET && method != LmRequest.LMHttpMethod.HEAD) {
+            return false;
+        }
+        String ifNoneMatch = lmRequest.getHeader(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etag != null && matchesAny(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = lmRequest.getHeader(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if (ifModifiedSince == null || lastModified <= 0) {
+            return false;
+        }
+        Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+        //HTTP日期只精确到秒
+        return since != null && lastModified / 1000 <= since.getTime() / 1000;
+    }
+
+    /**
+     * If-Range：ETag必须强匹配，或者日期和最后修改时间一致，否则忽略Range返回完整内容
+     */
+    private boolean isRangeApplicable(String etag, long lastModified) {
+        if (lmRequest.getMethod() != LmRequest.LMHttpMethod.GET) {
+            return false;
+        }
+        String ifRange = lmRequest.getHeader(HttpHeaderNames.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag != null && !etag.startsWith("W/") && etag.equals(ifRange);
+        }
+        Date date = DateFormatter.parseHttpDate(ifRange);
+        return date != null && lastModified > 0 && lastModified / 1000 == date.getTime() / 1000;
+    }
+
+    private static boolean matchesAny(String ifNoneMatch, String etag) {
+        String opaqueTag = opaqueTag(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if ("*".equals(candidate) || opaqueTag.equals(opaqueTag(candidate))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String opaqueTag(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+
+    /**
+     * 发送响应头以及响应体，响应体可以是ByteBuf、FileRegion或者ChunkedInput&lt;ByteBuf&gt;，发送之后由Netty释放。
+     * 长度由调用者给出，body为null时只发送响应头（例如HEAD请求）
+     *
+     * @param body          响应体
+     * @param contentLength 响应体的长度
+     * @return ChannelFuture
+     */
+    public ChannelFuture send(Object body, long contentLength) {
+        return send(body == null ? Collections.emptyList() : Collections.singletonList(body), contentLength);
+    }
+
+    /**
+     * 发送响应头以及多段响应体，contentLength小于0时不设置Content-Length（例如304）
+     */
+    private ChannelFuture send(List<?> bodies, long contentLength) {
+        //之前设置过的内容不会再发送了
+        replaceContent(Unpooled.EMPTY_BUFFER);
         if (lmRequest.isKeepAlive()) {
             setKeepAlive();
         }
-        RandomAccessFile raf = new RandomAccessFile(file, "r");
-        long fileLength = raf.length();
-        setContentLength(fileLength);
-        ctx.write(toDefaultHttpResponse());
-        ctx.write(new DefaultFileRegion(raf.getChannel(), 0, fileLength));
-        ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (contentLength >= 0) {
+            setContentLength(contentLength);
+        } else {
+            headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        }
+        write(toDefaultHttpResponse(), false, false);
+        for (Object body : bodies) {
+            write(body, false, false);
+        }
+        ChannelFuture future = write(LastHttpContent.EMPTY_LAST_CONTENT, true, true);
         if (!lmRequest.isKeepAlive()) {
             future.addListener(ChannelFutureListener.CLOSE);
         }
+        this.isSent = true;
         return future;
     }
 
+    /**
+     * 以流的方式发送响应：先发送响应头（HTTP/1.1使用Transfer-Encoding: chunked，不设置Content-Length），
+     * 之后写到返回的LmResponseStream中的数据分段发送，关闭LmResponseStream之后响应结束。
+     * 适合边生成边发送的大内容（例如导出报表），内存中只会保留有限的数据
+     *
+     * @return 流式响应体
+     */
+    public LmResponseStream stream() {
+        if (isSent) {
+            throw new IllegalStateException("response has already been sent");
+        }
+        replaceContent(Unpooled.EMPTY_BUFFER);
+        headers.remove(HttpHeaderNames.CONTENT_LENGTH);
+        //HTTP/1.0不支持chunked，只能在发送完之后关闭连接来表示响应结束
+        boolean chunked = lmRequest.getProtocolVersion() != HttpVersion.HTTP_1_0;
+        boolean keepAlive = chunked && lmRequest.isKeepAlive();
+        if (chunked) {
+            headers.set(HttpHeaderNames.TRANSFER_ENCODING, HttpHeaderValues.CHUNKED);
+        }
+        if (keepAlive) {
+            setKeepAlive();
+        } else {
+            headers.set(HttpHeaderNames.CONNECTION, HttpHeaderValues.CLOSE);
+        }
+        write(toDefaultHttpResponse(), false, true);
+        this.isSent = true;
+        return new LmResponseStream(this, ctx.channel(), keepAlive, isHead());
+    }
+
     /**
      * 发送文本内容给客户端（文本内容一般使用FullHttpResponse）
      *
@@ -318,8 +580,8 @@ public class LmResponse {
         if (lmRequest.isKeepAlive()) {
             setKeepAlive();
         }
-        ctx.write(toFullHttpResponse());
-        ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        //FullHttpResponse本身就是完整的响应，一次写出即可
+        ChannelFuture future = write(toFullHttpResponse(), true, true);
 
         if (!lmRequest.isKeepAlive()) {
             future.addListener(ChannelFutureListener.CLOSE);
@@ -328,6 +590,19 @@ public class LmResponse {
         return future;
     }
 
+    /**
+     * 写出消息，如果开启了管线化支持，消息会带上请求的序号，保证同一个连接上的响应按照请求的顺序写出
+     *
+     * @param msg   消息
+     * @param last  是否是该响应的最后一条消息
+     * @param flush 是否需要flush
+     * @return ChannelFuture
+     */
+    ChannelFuture write(Object msg, boolean last, boolean flush) {
+        Object out = sequence < 0 ? msg : new PipelinedMessage(sequence, msg, last);
+        return flush ? ctx.writeAndFlush(out) : ctx.write(out);
+    }
+
     /**
      * 发送错误信息，响应码给前端，最后要关闭channel
      * @param errMsg
@@ -337,8 +612,8 @@ public class LmResponse {
     public ChannelFuture sendError(String errMsg, HttpResponseStatus status) {
         this.setContent(errMsg);
         setStatus(status);
-        ctx.write(toFullHttpResponse());
-        ChannelFuture future = ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+        ChannelFuture future = write(toFullHttpResponse(), true, true);
+        this.isSent = true;
         //错误了应该是要关闭channel的
         future.addListener(ChannelFutureListener.CLOSE);
         return future;
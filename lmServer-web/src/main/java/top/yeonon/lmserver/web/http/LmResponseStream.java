@@ -0,0 +1,420 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.stream.ChunkedNioStream;
+import io.netty.util.AttributeKey;
+import io.netty.util.concurrent.Future;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 流式响应体，由LmResponse.stream()创建，响应头已经发送（HTTP/1.1使用Transfer-Encoding: chunked），
+ * 写入的数据攒够一段之后作为一个HttpContent发送，close()之后响应结束
+ *
+ * 背压：已经写出但还没有发送到Socket的数据超过Channel的写高水位，或者Channel本身不可写的时候，
+ * 在工作线程中写入会阻塞，直到数据发送出去（channelWritabilityChanged或者写出完成）。
+ * IO线程中不能阻塞，写入之前应该先检查isWritable()，不可写的时候用onWritable()注册回调，可写了再继续。
+ * 和其他OutputStream一样，同一时间只能有一个线程写入
+ * @Author yeonon
+ * @date 2018/12/23 0023 10:20
+ **/
+public class LmResponseStream extends OutputStream {
+
+    /**
+     * 连接上还没有结束的流式响应，Channel可写状态变化的时候通知它们。管线化的时候同一个连接上可能有多个
+     */
+    public static final AttributeKey<Set<LmResponseStream>> STREAMS = AttributeKey.valueOf("responseStreams");
+
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final LmResponse response;
+    private final Channel channel;
+    private final boolean keepAlive;
+    //HEAD请求只发送响应头，写入的数据直接丢弃
+    private final boolean discard;
+    private final int highWaterMark;
+
+    //还没有写满的一段数据
+    private ByteBuf buffer;
+    //已经写出但还没有发送完成的字节数
+    private long pending;
+    private boolean closed;
+    private IOException error;
+    private List<Runnable> writableCallbacks;
+    //连接断开的时候唤醒等待的写入线程
+    private final ChannelFutureListener closeListener = future -> fail(new IOException("connection closed"));
+
+    LmResponseStream(LmResponse response, Channel channel, boolean keepAlive, boolean discard) {
+        this.response = response;
+        this.channel = channel;
+        this.keepAlive = keepAlive;
+        this.discard = discard;
+        this.highWaterMark = channel.config().getWriteBufferHighWaterMark();
+        Set<LmResponseStream> streams = channel.attr(STREAMS).get();
+        if (streams == null) {
+            Set<LmResponseStream> created = ConcurrentHashMap.newKeySet();
+            streams = channel.attr(STREAMS).setIfAbsent(created);
+            if (streams == null) {
+                streams = created;
+            }
+        }
+        streams.add(this);
+        channel.closeFuture().addListener(closeListener);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureOpen();
+        if (discard) {
+            return;
+        }
+        if (buffer == null) {
+            buffer = channel.alloc().buffer(CHUNK_SIZE);
+        }
+        buffer.writeByte(b);
+        if (buffer.writableBytes() == 0) {
+            sendBuffer(false);
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if (discard) {
+            return;
+        }
+        while (len > 0) {
+            if (buffer == null) {
+                buffer = channel.alloc().buffer(CHUNK_SIZE);
+            }
+            int size = Math.min(len, CHUNK_SIZE - buffer.writerIndex());
+            buffer.writeBytes(b, off, size);
+            off += size;
+            len -= size;
+            if (buffer.writerIndex() >= CHUNK_SIZE) {
+                sendBuffer(false);
+            }
+        }
+    }
+
+    /**
+     * 写出UTF-8编码的文本
+     *
+     * @param text 文本
+     * @throws IOException 连接已经断开或者已经关闭
+     */
+    public void write(CharSequence text) throws IOException {
+        ensureOpen();
+        if (discard) {
+            return;
+        }
+        write(ByteBufUtil.writeUtf8(channel.alloc(), text));
+    }
+
+    /**
+     * 直接把ByteBuf作为一段发送（之前缓存的数据会先发送），调用之后Buffer由框架负责释放
+     *
+     * @param buf 数据
+     * @return ChannelFuture
+     * @throws IOException 连接已经断开或者已经关闭
+     */
+    public ChannelFuture write(ByteBuf buf) throws IOException {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+        if (discard) {
+            buf.release();
+            return channel.newSucceededFuture();
+        }
+        sendBuffer(false);
+        return send(buf, true, true);
+    }
+
+    /**
+     * 不等待可写，直接写出并flush一段数据，调用之后Buffer由框架负责释放。
+     * 给不能阻塞的场景使用（例如SSE的广播线程），调用者根据getPendingBytes()自己处理读得太慢的客户端
+     *
+     * @param buf 数据
+     * @return ChannelFuture
+     * @throws IOException 连接已经断开或者已经关闭
+     */
+    public ChannelFuture offer(ByteBuf buf) throws IOException {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            buf.release();
+            throw e;
+        }
+        if (discard) {
+            buf.release();
+            return channel.newSucceededFuture();
+        }
+        return send(buf, true, false);
+    }
+
+    /**
+     * 把InputStream中的数据全部发送出去，发送完成（或者失败）之后关闭InputStream。
+     * 由ChunkedWriteHandler在Channel可写的时候一段一段读取，不会一次读到内存中
+     *
+     * @param in 数据源
+     * @return 全部发送完成的ChannelFuture
+     * @throws IOException 连接已经断开或者已经关闭
+     */
+    public ChannelFuture transferFrom(InputStream in) throws IOException {
+        return transferFrom(Channels.newChannel(in));
+    }
+
+    /**
+     * 把ReadableByteChannel中的数据全部发送出去，发送完成（或者失败）之后关闭该Channel
+     *
+     * @param source 数据源
+     * @return 全部发送完成的ChannelFuture
+     * @throws IOException 连接已经断开或者已经关闭
+     */
+    public ChannelFuture transferFrom(ReadableByteChannel source) throws IOException {
+        try {
+            ensureOpen();
+        } catch (IOException e) {
+            source.close();
+            throw e;
+        }
+        if (discard) {
+            source.close();
+            return channel.newSucceededFuture();
+        }
+        sendBuffer(false);
+        ChannelFuture future = response.write(new ChunkedContentInput(new ChunkedNioStream(source, CHUNK_SIZE)), false, true);
+        future.addListener(this::onWriteComplete);
+        return future;
+    }
+
+    /**
+     * 发送已经缓存的数据
+     */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        sendBuffer(true);
+    }
+
+    /**
+     * 发送剩余的数据并结束响应，不是长连接的时候发送完成之后关闭连接
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        Set<LmResponseStream> streams = channel.attr(STREAMS).get();
+        if (streams != null) {
+            streams.remove(this);
+        }
+        channel.closeFuture().removeListener(closeListener);
+        if (error != null) {
+            releaseBuffer();
+            return;
+        }
+        sendBuffer(false);
+        ChannelFuture future = response.write(LastHttpContent.EMPTY_LAST_CONTENT, true, true);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+        notifyWritable();
+    }
+
+    /**
+     * 中止响应：响应头已经发送出去，出错的时候没办法再返回500了，只能关闭连接（HTTP/2是重置该Stream），
+     * 让客户端知道响应不完整，而不是收到一个看起来正常结束的响应
+     */
+    public void abort() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        Set<LmResponseStream> streams = channel.attr(STREAMS).get();
+        if (streams != null) {
+            streams.remove(this);
+        }
+        channel.closeFuture().removeListener(closeListener);
+        releaseBuffer();
+        channel.close();
+        notifyWritable();
+    }
+
+    /**
+     * 是否可以继续写入，连接断开或者已经关闭的时候返回false
+     */
+    public synchronized boolean isWritable() {
+        return !closed && error == null && channel.isWritable() && pending < highWaterMark;
+    }
+
+    /**
+     * 已经写出但还没有发送到Socket的字节数
+     */
+    public synchronized long getPendingBytes() {
+        return pending;
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 可以继续写入（或者连接已经断开）的时候执行回调，回调只会执行一次，一般在IO线程中执行。
+     * 已经可写的时候直接执行
+     *
+     * @param callback 回调
+     */
+    public void onWritable(Runnable callback) {
+        synchronized (this) {
+            if (!isWritableOrDone()) {
+                if (writableCallbacks == null) {
+                    writableCallbacks = new ArrayList<>(1);
+                }
+                writableCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * Channel的可写状态变化了（在IO线程中调用）
+     */
+    public void writabilityChanged() {
+        notifyWritable();
+    }
+
+    private void sendBuffer(boolean flush) throws IOException {
+        ByteBuf buf = buffer;
+        buffer = null;
+        if (buf != null && buf.isReadable()) {
+            send(buf, flush, true);
+        } else {
+            if (buf != null) {
+                buf.release();
+            }
+            if (flush) {
+                channel.flush();
+            }
+        }
+    }
+
+    private ChannelFuture send(ByteBuf buf, boolean flush, boolean await) throws IOException {
+        int size = buf.readableBytes();
+        synchronized (this) {
+            pending += size;
+        }
+        ChannelFuture future = response.write(new DefaultHttpContent(buf), false, flush || !isWritable());
+        future.addListener(f -> {
+            synchronized (this) {
+                pending -= size;
+            }
+            onWriteComplete(f);
+        });
+        if (await) {
+            awaitWritable();
+        }
+        return future;
+    }
+
+    private void onWriteComplete(Future<?> future) {
+        if (!future.isSuccess()) {
+            fail(new IOException("write response failed", future.cause()));
+        } else {
+            notifyWritable();
+        }
+    }
+
+    /**
+     * 工作线程中等待可写，IO线程中直接返回（由调用者自己检查isWritable）
+     */
+    private void awaitWritable() throws IOException {
+        if (channel.eventLoop().inEventLoop()) {
+            return;
+        }
+        synchronized (this) {
+            while (!isWritableOrDone()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while waiting for the client to read");
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private boolean isWritableOrDone() {
+        return closed || error != null || (channel.isWritable() && pending < highWaterMark);
+    }
+
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (error == null) {
+                error = e;
+            }
+        }
+        notifyWritable();
+    }
+
+    private void notifyWritable() {
+        List<Runnable> callbacks = null;
+        synchronized (this) {
+            notifyAll();
+            if (writableCallbacks != null && isWritableOrDone()) {
+                callbacks = writableCallbacks;
+                writableCallbacks = null;
+            }
+        }
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        synchronized (this) {
+            if (error != null) {
+                releaseBuffer();
+                throw error;
+            }
+            if (closed) {
+                throw new IOException("response stream is closed");
+            }
+        }
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            buffer.release();
+            buffer = null;
+        }
+    }
+}
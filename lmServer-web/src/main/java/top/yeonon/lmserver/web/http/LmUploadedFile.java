@@ -0,0 +1,145 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.handler.codec.http.multipart.FileUpload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 上传的文件，可以直接作为处理方法的参数（参数名对应表单中的字段名），多个同名文件可以使用LmUploadedFile[]或者List&lt;LmUploadedFile&gt;
+ *
+ * 小文件保存在内存中，超过uploadMemoryThreshold的文件在接收的时候就已经写到临时文件里了，
+ * 请求处理完之后临时文件会被删除，需要保留的文件要调用transferTo转移到其他地方
+ * @Author yeonon
+ * @date 2018/12/17 0017 10:12
+ **/
+public class LmUploadedFile {
+
+    private final FileUpload upload;
+
+    LmUploadedFile(FileUpload upload) {
+        this.upload = upload;
+    }
+
+    /**
+     * @return 表单中的字段名
+     */
+    public String getName() {
+        return upload.getName();
+    }
+
+    /**
+     * @return 客户端提供的文件名
+     */
+    public String getFileName() {
+        return upload.getFilename();
+    }
+
+    public String getContentType() {
+        return upload.getContentType();
+    }
+
+    public long getSize() {
+        return upload.length();
+    }
+
+    /**
+     * @return 文件内容是否在内存中
+     */
+    public boolean isInMemory() {
+        return upload.isInMemory();
+    }
+
+    /**
+     * 读取文件内容，大文件请使用getInputStream或者transferTo
+     *
+     * @return 文件内容
+     * @throws IOException
+     */
+    public byte[] getBytes() throws IOException {
+        return upload.get();
+    }
+
+    /**
+     * @return 文件内容的输入流
+     * @throws IOException
+     */
+    public InputStream getInputStream() throws IOException {
+        if (upload.isInMemory()) {
+            return new ByteBufInputStream(upload.getByteBuf().duplicate());
+        }
+        return new FileInputStream(upload.getFile());
+    }
+
+    /**
+     * 把文件转移到目标位置
+     *
+     * 已经写到临时文件里的，优先直接重命名（同一个文件系统下不需要复制数据），不行的话使用FileChannel.transferTo复制，
+     * 由内核完成数据的复制，不经过用户态的缓冲区；还在内存中的直接写到目标文件
+     *
+     * @param dest 目标文件
+     * @throws IOException
+     */
+    public void transferTo(File dest) throws IOException {
+        if (upload.isInMemory()) {
+            ByteBuf content = upload.getByteBuf();
+            try (FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = content.nioBuffer();
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            return;
+        }
+
+        File source = upload.getFile();
+        try {
+            Files.move(source.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (IOException e) {
+            //不在同一个文件系统，只能复制
+        }
+        try (FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dest.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    /**
+     * 判断参数类型是否是上传文件：LmUploadedFile、LmUploadedFile[]或者元素是LmUploadedFile的集合
+     *
+     * @param type 参数的泛型类型
+     * @return 是否是上传文件
+     */
+    public static boolean isUploadType(Type type) {
+        if (type == LmUploadedFile.class || type == LmUploadedFile[].class) {
+            return true;
+        }
+        if (type instanceof GenericArrayType) {
+            return ((GenericArrayType) type).getGenericComponentType() == LmUploadedFile.class;
+        }
+        if (type instanceof ParameterizedType) {
+            Type[] arguments = ((ParameterizedType) type).getActualTypeArguments();
+            return arguments.length == 1 && arguments[0] == LmUploadedFile.class;
+        }
+        return false;
+    }
+}
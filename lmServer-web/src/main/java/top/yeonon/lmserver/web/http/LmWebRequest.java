@@ -1,7 +1,11 @@
 package top.yeonon.lmserver.web.http;
 
+import top.yeonon.lmserver.web.route.HandlerChain;
+
 /**
  * 将Request和Response封装到一起
+ * 同时也是一次请求的上下文，由DispatchHandler构建一次，之后在Pipeline中一直向下传递，
+ * Filter、拦截器、Handler以及后置拦截器共用同一个实例
  *
  * @Author yeonon
  * @date 2018/6/10 0010 14:25
@@ -11,9 +15,17 @@ public class LmWebRequest {
     private final LmRequest lmRequest;
     private final LmResponse lmResponse;
 
+    //路由匹配得到的调用链
+    private final HandlerChain handlerChain;
+
     public LmWebRequest(LmRequest lmRequest, LmResponse lmResponse) {
+        this(lmRequest, lmResponse, null);
+    }
+
+    public LmWebRequest(LmRequest lmRequest, LmResponse lmResponse, HandlerChain handlerChain) {
         this.lmRequest = lmRequest;
         this.lmResponse = lmResponse;
+        this.handlerChain = handlerChain;
     }
 
     public LmRequest getLmRequest() {
@@ -23,4 +35,8 @@ public class LmWebRequest {
     public LmResponse getLmResponse() {
         return lmResponse;
     }
+
+    public HandlerChain getHandlerChain() {
+        return handlerChain;
+    }
 }
@@ -0,0 +1,75 @@
+package top.yeonon.lmserver.web.http;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 根据文件扩展名得到Content-Type，文本类型都带上UTF-8编码，未知的类型使用application/octet-stream
+ * @Author yeonon
+ * @date 2018/12/19 0019 10:05
+ **/
+public final class MimeTypes {
+
+    public static final String DEFAULT_TYPE = "application/octet-stream";
+
+    private static final Map<String, String> TYPES = new HashMap<>();
+
+    static {
+        //文本
+        TYPES.put("html", LmResponse.ContentTypeValue.HTML_CONTENT);
+        TYPES.put("htm", LmResponse.ContentTypeValue.HTML_CONTENT);
+        TYPES.put("txt", LmResponse.ContentTypeValue.PLAIN_CONTENT);
+        TYPES.put("css", "text/css;charset=utf-8");
+        TYPES.put("csv", "text/csv;charset=utf-8");
+        TYPES.put("md", "text/markdown;charset=utf-8");
+        TYPES.put("xml", LmResponse.ContentTypeValue.XML_CONTENT);
+        TYPES.put("js", LmResponse.ContentTypeValue.JAVASCRIPT_CONTENT);
+        TYPES.put("mjs", LmResponse.ContentTypeValue.JAVASCRIPT_CONTENT);
+        TYPES.put("json", LmResponse.ContentTypeValue.JSON_CONTENT);
+        TYPES.put("map", LmResponse.ContentTypeValue.JSON_CONTENT);
+        TYPES.put("webmanifest", "application/manifest+json;charset=utf-8");
+        //图片
+        TYPES.put("png", "image/png");
+        TYPES.put("jpg", "image/jpeg");
+        TYPES.put("jpeg", "image/jpeg");
+        TYPES.put("gif", "image/gif");
+        TYPES.put("webp", "image/webp");
+        TYPES.put("svg", "image/svg+xml;charset=utf-8");
+        TYPES.put("ico", "image/x-icon");
+        TYPES.put("bmp", "image/bmp");
+        //字体
+        TYPES.put("woff", "font/woff");
+        TYPES.put("woff2", "font/woff2");
+        TYPES.put("ttf", "font/ttf");
+        TYPES.put("otf", "font/otf");
+        //音视频
+        TYPES.put("mp3", "audio/mpeg");
+        TYPES.put("ogg", "audio/ogg");
+        TYPES.put("wav", "audio/wav");
+        TYPES.put("mp4", "video/mp4");
+        TYPES.put("webm", "video/webm");
+        //其他
+        TYPES.put("pdf", "application/pdf");
+        TYPES.put("zip", "application/zip");
+        TYPES.put("gz", "application/gzip");
+        TYPES.put("wasm", "application/wasm");
+    }
+
+    private MimeTypes() {
+    }
+
+    /**
+     * 获取文件对应的Content-Type
+     * @param fileName 文件名或者路径
+     * @return Content-Type
+     */
+    public static String of(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot < 0 || dot < fileName.lastIndexOf('/')) {
+            return DEFAULT_TYPE;
+        }
+        String type = TYPES.get(fileName.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type == null ? DEFAULT_TYPE : type;
+    }
+}
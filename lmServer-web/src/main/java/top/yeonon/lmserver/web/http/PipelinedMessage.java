@@ -0,0 +1,44 @@
+package top.yeonon.lmserver.web.http;
+
+import io.netty.util.AttributeKey;
+
+/**
+ * 带有请求序号的出站消息，用于支持HTTP/1.1的管线化（pipelining）
+ *
+ * 同一个连接上的请求可能在不同的线程里处理（工作线程池、异步返回值），完成的顺序和请求的顺序不一定一致，
+ * LmResponse写出的消息都会带上对应请求的序号，由HttpPipeliningHandler按照请求的顺序写出
+ * @Author yeonon
+ * @date 2018/12/15 0015 11:02
+ **/
+public final class PipelinedMessage {
+
+    /**
+     * 当前正在分发的请求的序号，由HttpPipeliningHandler在把请求交给后面的Handler之前设置
+     */
+    public static final AttributeKey<Integer> SEQUENCE = AttributeKey.valueOf("lmServer.pipelining.sequence");
+
+    private final int sequence;
+
+    private final Object message;
+
+    //是否是该响应的最后一条消息，写完之后才能开始写下一个响应
+    private final boolean last;
+
+    public PipelinedMessage(int sequence, Object message, boolean last) {
+        this.sequence = sequence;
+        this.message = message;
+        this.last = last;
+    }
+
+    public int getSequence() {
+        return sequence;
+    }
+
+    public Object getMessage() {
+        return message;
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+}
@@ -0,0 +1,76 @@
+package top.yeonon.lmserver.web.json;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 把handler的返回值直接序列化到ByteBuf中，不再经过String和byte[]
+ *
+ * 每条路由（每个HandlerChain）一个实例，会记住上一次返回值的类型以及对应的ObjectWriter，
+ * 同时根据之前的响应大小估计这次需要的Buffer大小，尽量避免Buffer扩容
+ * @Author yeonon
+ * @date 2018/12/13 0013 10:40
+ **/
+public final class JsonResponseWriter {
+
+    private static final int MIN_SIZE_HINT = 64;
+
+    private static final int MAX_SIZE_HINT = 64 * 1024;
+
+    //大多数handler每次返回的都是同一个类型，缓存一下可以省掉一次Map查找
+    private volatile CachedWriter cached;
+
+    //Buffer初始大小的估计值，取最近响应大小的滑动平均
+    private volatile int sizeHint = 256;
+
+    /**
+     * 序列化对象
+     * @param allocator Buffer分配器，一般是ctx.alloc()
+     * @param value 要序列化的对象
+     * @return 包含JSON内容的ByteBuf，由调用者负责释放（写到Channel之后会自动释放）
+     * @throws IOException 序列化失败
+     */
+    public ByteBuf write(ByteBufAllocator allocator, Object value) throws IOException {
+        ObjectWriter writer = writerFor(value.getClass());
+        ByteBuf buf = allocator.ioBuffer(sizeHint);
+        try (ByteBufOutputStream out = new ByteBufOutputStream(buf)) {
+            writer.writeValue((OutputStream) out, value);
+        } catch (IOException | RuntimeException e) {
+            buf.release();
+            throw e;
+        }
+        learn(buf.readableBytes());
+        return buf;
+    }
+
+    private ObjectWriter writerFor(Class<?> type) {
+        CachedWriter current = cached;
+        if (current != null && current.type == type) {
+            return current.writer;
+        }
+        ObjectWriter writer = JsonSupport.writerFor(type);
+        cached = new CachedWriter(type, writer);
+        return writer;
+    }
+
+    private void learn(int size) {
+        //并发下丢失一两次更新没有关系，只是一个估计值
+        int hint = sizeHint - (sizeHint >> 3) + (size >> 3);
+        sizeHint = Math.max(MIN_SIZE_HINT, Math.min(MAX_SIZE_HINT, Math.max(hint, size >> 1)));
+    }
+
+    private static final class CachedWriter {
+        private final Class<?> type;
+        private final ObjectWriter writer;
+
+        private CachedWriter(Class<?> type, ObjectWriter writer) {
+            this.type = type;
+            this.writer = writer;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package top.yeonon.lmserver.web.json;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.std.AsArraySerializerBase;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.LmResponseStream;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.BaseStream;
+
+/**
+ * 把Iterator、Stream、Iterable以及很大的Collection返回值一边遍历一边序列化成JSON数组发送，
+ * 不需要先把整个结果序列化到内存中，第一个元素序列化之后就会发送出去
+ *
+ * 请求头Accept中有application/x-ndjson的时候使用NDJSON（每行一个JSON值）。
+ * 数据通过Jackson的JsonGenerator写到LmResponseStream，由LmResponseStream分段发送：
+ * 在工作线程中写入会阻塞到Channel可写，在IO线程中不能阻塞，Channel不可写的时候先停下来，可写之后再继续遍历
+ * @Author yeonon
+ * @date 2018/12/23 0023 16:30
+ **/
+public final class JsonStreamWriter {
+
+    private static final Logger log = Logger.getLogger(JsonStreamWriter.class);
+
+    public static final String NDJSON_CONTENT = "application/x-ndjson";
+
+    //元素个数不少于这个值的Collection才以流的方式发送，小于等于0表示Collection总是一次性序列化
+    private static volatile int collectionThreshold = 1000;
+
+    //实现了Iterable的类型是否会被Jackson序列化成数组
+    private static final ConcurrentMap<Class<?>, Boolean> arrayTypes = new ConcurrentHashMap<>();
+
+    private JsonStreamWriter() {
+    }
+
+    public static void configure(int threshold) {
+        collectionThreshold = threshold;
+    }
+
+    /**
+     * 返回值是否需要以流的方式序列化
+     *
+     * @param value 处理方法的返回值
+     * @return 是否以流的方式发送
+     */
+    public static boolean isStreamable(Object value) {
+        if (value instanceof Iterator || value instanceof BaseStream) {
+            return true;
+        }
+        if (!(value instanceof Iterable)) {
+            return false;
+        }
+        if (value instanceof Collection) {
+            int threshold = collectionThreshold;
+            if (threshold <= 0 || ((Collection<?>) value).size() < threshold) {
+                return false;
+            }
+        }
+        return isSerializedAsArray(value.getClass());
+    }
+
+    /**
+     * 实现了Iterable的类型不一定会被序列化成数组，例如JsonNode（ObjectNode是一个对象）、Path（是一个字符串），
+     * 只有Jackson本身也会把它序列化成数组的时候才能以流的方式发送
+     */
+    private static boolean isSerializedAsArray(Class<?> type) {
+        Boolean array = arrayTypes.get(type);
+        if (array == null) {
+            try {
+                JsonSerializer<Object> serializer = JsonSupport.getObjectMapper()
+                        .getSerializerProviderInstance().findValueSerializer(type);
+                array = serializer instanceof AsArraySerializerBase;
+            } catch (JsonMappingException e) {
+                array = false;
+            }
+            arrayTypes.putIfAbsent(type, array);
+        }
+        return array;
+    }
+
+    /**
+     * 以流的方式发送返回值，调用之前需要先用isStreamable判断。
+     * 在IO线程中调用的时候，方法返回的时候可能还没有发送完
+     *
+     * @param ctx      ChannelHandlerContext
+     * @param request  请求
+     * @param response 响应
+     * @param value    处理方法的返回值
+     * @throws IOException 创建JsonGenerator失败
+     */
+    public static void write(ChannelHandlerContext ctx, LmRequest request, LmResponse response, Object value) throws IOException {
+        Iterator<?> iterator;
+        AutoCloseable source = null;
+        if (value instanceof BaseStream) {
+            iterator = ((BaseStream<?, ?>) value).iterator();
+            source = (BaseStream<?, ?>) value;
+        } else if (value instanceof Iterator) {
+            iterator = (Iterator<?>) value;
+            if (value instanceof AutoCloseable) {
+                source = (AutoCloseable) value;
+            }
+        } else {
+            iterator = ((Iterable<?>) value).iterator();
+        }
+
+        String accept = request.getHeader(HttpHeaderNames.ACCEPT);
+        boolean ndjson = accept != null && accept.contains(NDJSON_CONTENT);
+        response.setContentType(ndjson ? NDJSON_CONTENT : LmResponse.ContentTypeValue.JSON_CONTENT);
+        LmResponseStream out = response.stream();
+        JsonGenerator generator;
+        try {
+            generator = JsonSupport.getObjectMapper().getFactory().createGenerator(out);
+        } catch (IOException e) {
+            out.abort();
+            closeQuietly(source);
+            throw e;
+        }
+        //LmResponseStream由ArrayWriter自己结束，JsonGenerator关闭的时候不要关闭它
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        //NDJSON的每个值后面自己加换行，不需要Jackson默认的空格分隔
+        generator.setRootValueSeparator(null);
+        new ArrayWriter(ctx, out, generator, iterator, source, ndjson).run();
+    }
+
+    private static void closeQuietly(AutoCloseable source) {
+        if (source == null) {
+            return;
+        }
+        try {
+            source.close();
+        } catch (Exception e) {
+            log.warn("can't close the stream source : " + e);
+        }
+    }
+
+    /**
+     * 遍历并序列化元素，IO线程中Channel不可写的时候注册成LmResponseStream的onWritable回调，可写之后从停下的位置继续
+     */
+    private static final class ArrayWriter implements Runnable {
+
+        private final ChannelHandlerContext ctx;
+        private final LmResponseStream out;
+        private final JsonGenerator generator;
+        private final Iterator<?> iterator;
+        private final AutoCloseable source;
+        private final boolean ndjson;
+
+        private boolean started;
+        //大多数情况下元素都是同一个类型，缓存上一个元素的ObjectWriter
+        private Class<?> lastType;
+        private ObjectWriter lastWriter;
+
+        ArrayWriter(ChannelHandlerContext ctx, LmResponseStream out, JsonGenerator generator,
+                    Iterator<?> iterator, AutoCloseable source, boolean ndjson) {
+            this.ctx = ctx;
+            this.out = out;
+            this.generator = generator;
+            this.iterator = iterator;
+            this.source = source;
+            this.ndjson = ndjson;
+        }
+
+        @Override
+        public void run() {
+            try {
+                boolean first = !started;
+                if (!started) {
+                    started = true;
+                    if (!ndjson) {
+                        generator.writeStartArray();
+                    }
+                }
+                boolean eventLoop = ctx.executor().inEventLoop();
+                while (iterator.hasNext()) {
+                    writeElement(iterator.next());
+                    if (first) {
+                        //第一个元素马上发送出去，客户端不需要等到攒满一段
+                        first = false;
+                        generator.flush();
+                    }
+                    if (eventLoop && !out.isWritable()) {
+                        //先把已经序列化的数据交出去，flush之后还是不可写就等Channel可写了再继续
+                        generator.flush();
+                        if (!out.isWritable()) {
+                            out.onWritable(this);
+                            return;
+                        }
+                    }
+                }
+                if (!ndjson) {
+                    generator.writeEndArray();
+                }
+                generator.close();
+                out.close();
+                closeQuietly(source);
+            } catch (Exception e) {
+                if (ctx.channel().isActive()) {
+                    log.error("can't write streaming json response", e);
+                } else {
+                    log.warn("client closed the connection before the streaming json response finished");
+                }
+                out.abort();
+                closeQuietly(source);
+            }
+        }
+
+        private void writeElement(Object element) throws IOException {
+            if (element == null) {
+                generator.writeNull();
+            } else {
+                Class<?> type = element.getClass();
+                if (type != lastType) {
+                    lastType = type;
+                    lastWriter = JsonSupport.elementWriterFor(type);
+                }
+                lastWriter.writeValue(generator, element);
+            }
+            if (ndjson) {
+                generator.writeRaw('\n');
+            }
+        }
+    }
+}
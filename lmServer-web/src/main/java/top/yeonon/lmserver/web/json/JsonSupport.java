@@ -0,0 +1,89 @@
+package top.yeonon.lmserver.web.json;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JSON序列化的公共部分，整个服务共用一个ObjectMapper
+ *
+ * ObjectWriter和ObjectReader是不可变且线程安全的，按类型缓存起来，避免每次序列化都重新查找序列化器
+ * @Author yeonon
+ * @date 2018/12/13 0013 10:20
+ **/
+public final class JsonSupport {
+
+    //请求体中多余的字段直接忽略，客户端多传字段不应该导致请求失败
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private static final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    private static final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private static final Map<Class<?>, ObjectWriter> elementWriters = new ConcurrentHashMap<>();
+
+    private JsonSupport() {
+    }
+
+    public static ObjectMapper getObjectMapper() {
+        return OBJECT_MAPPER;
+    }
+
+    /**
+     * 获取某个类型对应的ObjectWriter
+     * @param type 对象的实际类型
+     * @return ObjectWriter
+     */
+    public static ObjectWriter writerFor(Class<?> type) {
+        ObjectWriter writer = writers.get(type);
+        if (writer == null) {
+            writer = OBJECT_MAPPER.writerFor(type);
+            ObjectWriter old = writers.putIfAbsent(type, writer);
+            if (old != null) {
+                writer = old;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * 获取流式序列化数组元素用的ObjectWriter，和writerFor的区别是写完一个值之后不会flush，由调用者决定什么时候flush
+     * @param type 元素的实际类型
+     * @return ObjectWriter
+     */
+    public static ObjectWriter elementWriterFor(Class<?> type) {
+        ObjectWriter writer = elementWriters.get(type);
+        if (writer == null) {
+            writer = writerFor(type).without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+            ObjectWriter old = elementWriters.putIfAbsent(type, writer);
+            if (old != null) {
+                writer = old;
+            }
+        }
+        return writer;
+    }
+
+    /**
+     * 获取某个类型对应的ObjectReader，支持泛型类型
+     * @param type 参数的泛型类型
+     * @return ObjectReader
+     */
+    public static ObjectReader readerFor(Type type) {
+        ObjectReader reader = readers.get(type);
+        if (reader == null) {
+            reader = OBJECT_MAPPER.readerFor(OBJECT_MAPPER.getTypeFactory().constructType(type));
+            ObjectReader old = readers.putIfAbsent(type, reader);
+            if (old != null) {
+                reader = old;
+            }
+        }
+        return reader;
+    }
+}
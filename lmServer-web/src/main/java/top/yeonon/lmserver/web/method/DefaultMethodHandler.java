@@ -2,9 +2,11 @@ package top.yeonon.lmserver.web.method;
 
 
 import top.yeonon.lmserver.web.databind.ASMParamBindStrategy;
+import top.yeonon.lmserver.web.databind.ParamBindStrategy;
+import top.yeonon.lmserver.web.databind.ParamBinder;
+import top.yeonon.lmserver.web.databind.PrimevalParamStrategy;
 import top.yeonon.lmserver.web.http.LmRequest;
 import top.yeonon.lmserver.web.http.LmResponse;
-import top.yeonon.lmserver.web.http.LmWebRequest;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
@@ -26,6 +28,12 @@ public class DefaultMethodHandler implements MethodHandler {
     //映射的方法
     private Method method;
 
+    //参数绑定器，创建handler的时候就解析好，每次请求直接使用
+    private final ParamBinder[] binders;
+
+    //方法调用器，优先使用启动时生成的字节码调用器，否则使用反射
+    private final MethodInvoker invoker;
+
     /**
      * @param classInstance 实例
      * @param method        处理映射的方法
@@ -33,16 +41,42 @@ public class DefaultMethodHandler implements MethodHandler {
     public DefaultMethodHandler(Object classInstance, Method method) {
         this.classInstance = classInstance;
         this.method = method;
+        this.binders = chooseStrategy(method).resolve(method);
+        this.invoker = MethodInvokerFactory.create(method);
+    }
+
+    /**
+     * 自动选择参数绑定策略：编译的时候加了-parameters参数就直接使用反射获取参数名，否则使用ASM读取本地变量表
+     *
+     * @param method 处理映射的方法
+     * @return 参数绑定策略
+     */
+    private static ParamBindStrategy chooseStrategy(Method method) {
+        if (PrimevalParamStrategy.isSupported(method)) {
+            return PrimevalParamStrategy.INSTANCE;
+        }
+        return ASMParamBindStrategy.INSTANCE;
     }
 
     @Override
     public Object execute(LmRequest request, LmResponse response)
             throws InvocationTargetException, IllegalAccessException {
-        Object res = null;
-        Object[] args;
-        //TODO 这里有个问题，当用户使用框架的时候，无法得知是否有用到-parameters参数，现在暂时先搁置，后面再回来做
-        args = ASMParamBindStrategy.INSTANCE.execute(method, classInstance, new LmWebRequest(request, response));
-        res = this.method.invoke(this.classInstance, args);
-        return res;
+        Object[] args = new Object[binders.length];
+        for (int i = 0; i < binders.length; i++) {
+            args[i] = binders[i].bind(request, response);
+        }
+        try {
+            return invoker.invoke(this.classInstance, args);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            throw e;
+        } catch (Throwable e) {
+            //生成的调用器会直接抛出方法本身的异常，这里包装一下，和反射调用保持一致
+            throw new InvocationTargetException(e);
+        }
+    }
+
+    @Override
+    public Method getMethod() {
+        return method;
     }
 }
@@ -4,6 +4,7 @@ import top.yeonon.lmserver.web.http.LmRequest;
 import top.yeonon.lmserver.web.http.LmResponse;
 
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 
 /**
  * @Author yeonon
@@ -21,4 +22,11 @@ public interface MethodHandler {
      */
     Object execute(LmRequest request, LmResponse response)
             throws InvocationTargetException, IllegalAccessException;
+
+    /**
+     * 获取映射的方法
+     *
+     * @return 方法
+     */
+    Method getMethod();
 }
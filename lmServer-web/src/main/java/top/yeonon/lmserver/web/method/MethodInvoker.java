@@ -0,0 +1,19 @@
+package top.yeonon.lmserver.web.method;
+
+/**
+ * 方法调用器，用来代替Method.invoke()
+ * @Author yeonon
+ * @date 2018/12/11 0011 20:10
+ **/
+public interface MethodInvoker {
+
+    /**
+     * 调用方法
+     *
+     * @param target 方法所在的类实例
+     * @param args   参数
+     * @return 方法的返回值，void方法返回null
+     * @throws Throwable 方法本身抛出的异常
+     */
+    Object invoke(Object target, Object[] args) throws Throwable;
+}
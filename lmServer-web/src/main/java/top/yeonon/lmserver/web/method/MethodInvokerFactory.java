@@ -0,0 +1,243 @@
+package top.yeonon.lmserver.web.method;
+
+import org.apache.log4j.Logger;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * 方法调用器工厂
+ *
+ * 启动的时候使用ASM为每个映射方法生成一个直接调用该方法的类，例如：
+ * <pre>
+ * public final class Invoker$1 implements MethodInvoker {
+ *     public Object invoke(Object target, Object[] args) {
+ *         return ((TestController) target).test((String) args[0], ((Integer) args[1]).intValue());
+ *     }
+ * }
+ * </pre>
+ * 这样每次请求就是普通的方法调用，没有反射的访问检查，JIT也可以内联。
+ * 生成的类和Controller不在同一个包（也不是同一个类加载器），所以只能调用public类的public方法，
+ * 其他情况（或者生成失败）就使用反射调用器。
+ * @Author yeonon
+ * @date 2018/12/11 0011 20:30
+ **/
+public final class MethodInvokerFactory {
+
+    private static final Logger log = Logger.getLogger(MethodInvokerFactory.class);
+
+    private static final String INVOKER_INTERNAL_NAME = Type.getInternalName(MethodInvoker.class);
+
+    private static final String INVOKER_CLASS_PREFIX = "top/yeonon/lmserver/web/method/generated/Invoker$";
+
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    //每个Controller的类加载器对应一个用来加载生成类的类加载器。
+    //生成类的类加载器以Controller的类加载器为parent，直接作为value的话会一直强引用着key，所以这里用WeakReference，
+    //它由生成的调用器（通过其Class）保持可达，调用器都不再使用之后两个类加载器都可以被回收
+    private static final Map<ClassLoader, WeakReference<InvokerClassLoader>> classLoaders = new WeakHashMap<>();
+
+    private MethodInvokerFactory() {}
+
+    /**
+     * 创建方法调用器，优先使用生成的字节码调用器
+     *
+     * @param method 映射方法
+     * @return 方法调用器
+     */
+    public static MethodInvoker create(Method method) {
+        if (isAccessible(method)) {
+            try {
+                return generate(method);
+            } catch (Throwable e) {
+                log.warn("can't generate invoker for " + method + ", fallback to reflection : " + e);
+            }
+        }
+        return new ReflectionMethodInvoker(method);
+    }
+
+    /**
+     * 生成的类只能访问public的类和方法，参数和返回值的类型也需要是public的（需要做类型转换）
+     */
+    private static boolean isAccessible(Method method) {
+        if (!Modifier.isPublic(method.getModifiers()) || !isPublic(method.getDeclaringClass())
+                || !isPublic(method.getReturnType())) {
+            return false;
+        }
+        for (Class<?> type : method.getParameterTypes()) {
+            if (!isPublic(type)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isPublic(Class<?> clz) {
+        while (clz.isArray()) {
+            clz = clz.getComponentType();
+        }
+        for (Class<?> c = clz; c != null; c = c.getEnclosingClass()) {
+            if (!c.isPrimitive() && !Modifier.isPublic(c.getModifiers())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static MethodInvoker generate(Method method) throws ReflectiveOperationException {
+        String className = INVOKER_CLASS_PREFIX + classCounter.incrementAndGet();
+        byte[] bytes = generateBytes(className, method);
+
+        ClassLoader parent = method.getDeclaringClass().getClassLoader();
+        if (parent == null) {
+            parent = MethodInvokerFactory.class.getClassLoader();
+        }
+        InvokerClassLoader classLoader;
+        synchronized (classLoaders) {
+            WeakReference<InvokerClassLoader> ref = classLoaders.get(parent);
+            classLoader = ref == null ? null : ref.get();
+            if (classLoader == null) {
+                classLoader = new InvokerClassLoader(parent);
+                classLoaders.put(parent, new WeakReference<>(classLoader));
+            }
+        }
+        Class<?> invokerClass = classLoader.define(className.replace('/', '.'), bytes);
+        return (MethodInvoker) invokerClass.newInstance();
+    }
+
+    private static byte[] generateBytes(String className, Method method) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null,
+                "java/lang/Object", new String[]{INVOKER_INTERNAL_NAME});
+
+        //构造方法
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        //invoke方法
+        mv = cw.visitMethod(ACC_PUBLIC, "invoke",
+                "(Ljava/lang/Object;[Ljava/lang/Object;)Ljava/lang/Object;", null, null);
+        mv.visitCode();
+
+        Class<?> owner = method.getDeclaringClass();
+        String ownerName = Type.getInternalName(owner);
+        boolean isStatic = Modifier.isStatic(method.getModifiers());
+        if (!isStatic) {
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitTypeInsn(CHECKCAST, ownerName);
+        }
+
+        Class<?>[] paramTypes = method.getParameterTypes();
+        for (int i = 0; i < paramTypes.length; i++) {
+            mv.visitVarInsn(ALOAD, 2);
+            pushInt(mv, i);
+            mv.visitInsn(AALOAD);
+            unbox(mv, paramTypes[i]);
+        }
+
+        String desc = Type.getMethodDescriptor(method);
+        if (isStatic) {
+            mv.visitMethodInsn(INVOKESTATIC, ownerName, method.getName(), desc, owner.isInterface());
+        } else if (owner.isInterface()) {
+            mv.visitMethodInsn(INVOKEINTERFACE, ownerName, method.getName(), desc, true);
+        } else {
+            mv.visitMethodInsn(INVOKEVIRTUAL, ownerName, method.getName(), desc, false);
+        }
+
+        Class<?> returnType = method.getReturnType();
+        if (returnType == void.class) {
+            mv.visitInsn(ACONST_NULL);
+        } else if (returnType.isPrimitive()) {
+            box(mv, returnType);
+        }
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void pushInt(MethodVisitor mv, int value) {
+        if (value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else {
+            mv.visitIntInsn(SIPUSH, value);
+        }
+    }
+
+    /**
+     * 把Object类型的参数转换成方法需要的类型，基本类型需要拆箱
+     */
+    private static void unbox(MethodVisitor mv, Class<?> type) {
+        if (!type.isPrimitive()) {
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            return;
+        }
+        Type wrapper = Type.getType(wrapperOf(type));
+        mv.visitTypeInsn(CHECKCAST, wrapper.getInternalName());
+        mv.visitMethodInsn(INVOKEVIRTUAL, wrapper.getInternalName(), type.getName() + "Value",
+                "()" + Type.getDescriptor(type), false);
+    }
+
+    /**
+     * 基本类型的返回值装箱
+     */
+    private static void box(MethodVisitor mv, Class<?> type) {
+        Type wrapper = Type.getType(wrapperOf(type));
+        mv.visitMethodInsn(INVOKESTATIC, wrapper.getInternalName(), "valueOf",
+                "(" + Type.getDescriptor(type) + ")" + wrapper.getDescriptor(), false);
+    }
+
+    private static Class<?> wrapperOf(Class<?> type) {
+        if (type == int.class) {
+            return Integer.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == double.class) {
+            return Double.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == char.class) {
+            return Character.class;
+        }
+        throw new IllegalArgumentException("not a primitive type : " + type);
+    }
+
+
+    /**
+     * 加载生成类的类加载器，父加载器是Controller的类加载器，这样生成的类才能引用到Controller
+     */
+    private static final class InvokerClassLoader extends ClassLoader {
+
+        InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
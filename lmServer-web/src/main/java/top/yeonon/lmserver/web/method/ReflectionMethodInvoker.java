@@ -0,0 +1,24 @@
+package top.yeonon.lmserver.web.method;
+
+import java.lang.reflect.Method;
+
+/**
+ * 基于反射的方法调用器，在无法生成字节码调用器的时候作为后备方案
+ * @Author yeonon
+ * @date 2018/12/11 0011 20:15
+ **/
+public class ReflectionMethodInvoker implements MethodInvoker {
+
+    private final Method method;
+
+    public ReflectionMethodInvoker(Method method) {
+        this.method = method;
+        //只需要在创建的时候设置一次
+        this.method.setAccessible(true);
+    }
+
+    @Override
+    public Object invoke(Object target, Object[] args) throws Throwable {
+        return method.invoke(target, args);
+    }
+}
@@ -1,11 +1,12 @@
 package top.yeonon.lmserver.web.process;
 
-import com.google.common.collect.Lists;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.log4j.Logger;
-import top.yeonon.lmserver.web.annotation.Interceptor;
 import top.yeonon.lmserver.core.exception.RequestMethodRepeatException;
+import top.yeonon.lmserver.web.annotation.Interceptor;
 import top.yeonon.lmserver.web.annotation.Controller;
 import top.yeonon.lmserver.web.annotation.Filter;
+import top.yeonon.lmserver.web.annotation.WebSocketMapping;
 import top.yeonon.lmserver.web.filter.LmFilter;
 import top.yeonon.lmserver.web.http.LmRequest;
 import top.yeonon.lmserver.web.interceptor.LmInterceptor;
@@ -14,8 +15,16 @@ import top.yeonon.lmserver.core.ioc.Pair;
 import top.yeonon.lmserver.web.method.DefaultMethodHandler;
 import top.yeonon.lmserver.web.method.MethodHandler;
 import top.yeonon.lmserver.web.annotation.RequestMapping;
+import top.yeonon.lmserver.web.route.PathPattern;
+import top.yeonon.lmserver.web.route.ResourceChain;
+import top.yeonon.lmserver.web.route.Route;
+import top.yeonon.lmserver.web.route.RouteMatch;
+import top.yeonon.lmserver.web.route.Router;
+import top.yeonon.lmserver.web.websocket.LmWebSocketHandler;
+import top.yeonon.lmserver.web.websocket.WebSocketEndpoint;
+
 import java.lang.reflect.Method;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -30,22 +39,19 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
 
 
     /**
-     * 这里的数据结构有些复杂，稍微解释一下:
-     *
-     * 首先，这是一个Map，键是String类型的URL，值是一个List列表
-     * 然后，List列表的元素是Pair元组类型的，该Pair是由请求方法（GET,POST等）和对应的MethodHandler构成
-     * 最后，查找的时候先根据URL查找，拿到对应的List，然后在根据请求方法查找对应的MethodHandler
-     *
-     * 注：这里用到了Pair元组类型，这是框架中自写的一个类（JDK中没有自带类似功能的组件）。
+     * 路由，查找的时候先根据路径在前缀树中找到对应的Route，然后再根据请求方法找到对应的MethodHandler
      */
-    private static final Map<String, List<Pair<LmRequest.LMHttpMethod, MethodHandler>>> httpHandlerMaps = new HashMap<>();
+    private static final Router router = new Router();
 
 
-    //filter maps
-    private static final Map<String, List<LmFilter>> filterMaps = new HashMap<>();
+    //filter以及它的路径模式，一个filter可以有多个路径模式
+    private static final List<Pair<PathPattern, LmFilter>> filters = new ArrayList<>();
 
-    //interceptor maps
-    private static final Map<String, List<LmInterceptor>> interceptorMaps = new HashMap<>();
+    //interceptor以及它的路径模式
+    private static final List<Pair<PathPattern, LmInterceptor>> interceptors = new ArrayList<>();
+
+    //WebSocket端点，按照握手请求的路径精确匹配
+    private static final Map<String, WebSocketEndpoint> webSockets = new HashMap<>();
 
     private static Map<String, Class<?>> typeMaps = null;
 
@@ -77,21 +83,22 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
                     clz.isAnnotationPresent(Filter.class)) {
                 //如果是Filter，则执行对Filter的处理逻辑
                 processFilter(clz, beanInstance);
+            } else if (LmWebSocketHandler.class.isAssignableFrom(clz) &&
+                    clz.isAnnotationPresent(WebSocketMapping.class)) {
+                //如果是WebSocket端点，则执行对WebSocket的处理逻辑
+                processWebSocket(clz, beanInstance);
             } else if (clz.isAnnotationPresent(Controller.class)) {
                 //如果是controller,则执行对controller的处理逻辑
                 processController(clz, beanInstance);
             }
         });
 
-        //处理filter顺序
-        filterMaps.forEach((url, filters) -> {
-            Collections.sort(filters);
-        });
-
-        //处理拦截器顺序
-        interceptorMaps.forEach((url, interceptors) -> {
-            Collections.sort(interceptors);
-        });
+        //所有的Filter、拦截器和路由都加载完了，为每条路由构建好排序之后的调用链
+        router.buildChains(filters, interceptors);
+        //WebSocket的握手请求同样要经过匹配的拦截器和Filter
+        for (WebSocketEndpoint endpoint : webSockets.values()) {
+            endpoint.buildChain(filters, interceptors);
+        }
     }
 
 
@@ -105,7 +112,12 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
     private void processController(Class<?> clz, Object beanInstance) {
 
         log.info("load controller ： " + clz.getName());
-        //实例化该类
+        //类上的RequestMapping作为路径前缀
+        String[] prefixes = {""};
+        if (clz.isAnnotationPresent(RequestMapping.class) &&
+                clz.getAnnotation(RequestMapping.class).value().length != 0) {
+            prefixes = clz.getAnnotation(RequestMapping.class).value();
+        }
         //从class对象中得到该类声明的方法集合
         Method[] methods = clz.getDeclaredMethods();
         //遍历方法集合
@@ -118,42 +130,18 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
                 String[] urls = requestMapping.value();
                 //拿到注解上的请求方法
                 LmRequest.LMHttpMethod requestMethod = requestMapping.method();
-                //遍历url集合
-                for (String url : urls) {
-                    //创建一个Pair，该Pair是由请求方法以及MethodHandler构成的
-                    Pair<LmRequest.LMHttpMethod, MethodHandler> pair =
-                            new Pair<>(requestMethod,
-                                    new DefaultMethodHandler(beanInstance, method));
-                    if (httpHandlerMaps.get(url) == null) {
-                        //构造映射关系，如果是第一次碰到该URL，那么就创建一个新的List
-                        httpHandlerMaps.put(url, Lists.newArrayList(pair));
-                    } else {
-                        //先检查是否有重复
-                        checkRepeatMethod(url, requestMethod);
-                        httpHandlerMaps.get(url).add(pair);
+                MethodHandler handler = new DefaultMethodHandler(beanInstance, method);
+                //遍历url集合，同一路径同一请求方法重复注册的话，router会抛出RequestMethodRepeatException
+                for (String prefix : prefixes) {
+                    for (String url : urls) {
+                        Route route = router.addRoute(prefix + "/" + url, requestMethod, handler);
+                        log.info("load requestMapping : mapping is  {" + route.getPattern() + " : " + requestMethod.getName() + "}");
                     }
-                    log.info("load requestMapping : mapping is  {" + url + " : " + requestMethod.getName() + "}");
                 }
             }
         }
     }
 
-    /**
-     * 检查是否有相同的路径和请求方法的元组已经存在于集合中了
-     * @param url
-     * @param requestMethod
-     */
-    private void checkRepeatMethod(String url, LmRequest.LMHttpMethod requestMethod) {
-        httpHandlerMaps.get(url).forEach(pair -> {
-            if (pair.first().equals(requestMethod)) {
-                //如果有重复，直接抛出运行时异常，结束进程即可
-                throw new RequestMethodRepeatException("don't add repeat request method on same path！ " +
-                        "repeat request method is： " + requestMethod.getName()
-                        + " and the path is: " + url);
-            }
-        });
-    }
-
 
     /**
      * 处理Interceptor
@@ -166,13 +154,8 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
         Interceptor interceptor = clz.getAnnotation(Interceptor.class);
         String[] urls = interceptor.value();
         for (String url : urls) {
-            if (interceptorMaps.get(url) == null) {
-                log.info("load interceptor " + clz.getName() + "and the path is" + url);
-                interceptorMaps.put(url, Lists.newArrayList(interceptorInstance));
-            } else {
-
-                interceptorMaps.get(url).add(interceptorInstance);
-            }
+            log.info("load interceptor " + clz.getName() + " and the path is ： " + url);
+            interceptors.add(new Pair<>(new PathPattern(url), interceptorInstance));
         }
     }
 
@@ -187,45 +170,61 @@ public class WebBeanProcessor extends AbstractBeanProcessor {
         Filter filter = clz.getAnnotation(Filter.class);
         String[] urls = filter.value();
         for (String url : urls) {
-            if (filterMaps.get(url) == null) {
-                log.info("load filter " + clz.getName() + " and the url is ： " + url);
-                filterMaps.put(url, Lists.newArrayList(filterInstance));
-            } else {
-                filterMaps.get(url).add(filterInstance);
-            }
+            log.info("load filter " + clz.getName() + " and the url is ： " + url);
+            filters.add(new Pair<>(new PathPattern(url), filterInstance));
         }
     }
 
 
     /**
-     * 根据请求路径和请求方法 拿到对应的handler
-     * @param url 请求路径
-     * @param requestMethod 请求方法
-     * @return handler
+     * 处理WebSocket端点
+     *
+     * @param clz          类
+     * @param beanInstance 类实例
      */
-    public static MethodHandler getHandler(String url, LmRequest.LMHttpMethod requestMethod) {
-        if (getMethodAndMethodHandlerOfPath(url) == null) {
-            return null;
-        }
-        //httpHandlerMaps.get(url)返回的是Set类型，遍历查找和请求方法对应的handler即可
-        for (Pair<LmRequest.LMHttpMethod, MethodHandler> pair : httpHandlerMaps.get(url)) {
-            if (pair.first().equals(requestMethod)) {
-                return pair.second();
+    private void processWebSocket(Class<?> clz, Object beanInstance) {
+        WebSocketMapping mapping = clz.getAnnotation(WebSocketMapping.class);
+        for (String url : mapping.value()) {
+            String path = "/" + StringUtils.strip(url.trim(), "/");
+            WebSocketEndpoint endpoint = new WebSocketEndpoint(path, (LmWebSocketHandler<?>) beanInstance, mapping.compress());
+            if (webSockets.putIfAbsent(path, endpoint) != null) {
+                throw new RequestMethodRepeatException("websocket path " + path + " is repeated");
             }
+            log.info("load websocket " + clz.getName() + " and the path is ： " + path
+                    + " , message type is : " + endpoint.getMessageType().getTypeName());
         }
-        return null;
     }
 
-    public static List<Pair<LmRequest.LMHttpMethod, MethodHandler>> getMethodAndMethodHandlerOfPath(String url) {
-        return httpHandlerMaps.get(url);
+
+    /**
+     * 根据握手请求的路径查找WebSocket端点
+     * @param path 请求路径（不包含Query参数）
+     * @return 端点，没有注册的时候返回null
+     */
+    public static WebSocketEndpoint getWebSocket(String path) {
+        return webSockets.get(path);
+    }
+
+    public static boolean hasWebSockets() {
+        return !webSockets.isEmpty();
     }
 
-    public static List<LmFilter> getFilter(String url) {
-        return filterMaps.get(url);
+    /**
+     * 根据请求路径查找路由
+     * @param path 请求路径
+     * @return 匹配结果（包含路径变量），没有匹配的路由则返回null
+     */
+    public static RouteMatch getRoute(String path) {
+        return router.match(path);
     }
 
-    public static List<LmInterceptor> getInterceptor(String url) {
-        return interceptorMaps.get(url);
+    /**
+     * 没有匹配路由的请求（静态资源或者404），按请求路径查找Filter和拦截器
+     * @param path 解码之后的请求路径
+     * @return 调用链
+     */
+    public static ResourceChain getResourceChain(String path) {
+        return ResourceChain.match(path, filters, interceptors);
     }
 
     public static Class<?> getClassType(String typename) {
@@ -0,0 +1,114 @@
+package top.yeonon.lmserver.web.resource;
+
+import io.netty.buffer.ByteBuf;
+import top.yeonon.lmserver.web.http.LmResource;
+
+import java.io.File;
+
+/**
+ * 缓存在内存中的小文件，内容是只读的，发送的时候使用slice，多个连接共享同一块内存
+ *
+ * ETag在加载的时候计算一次，文件修改之后缓存会被替换，ETag也就跟着更新
+ * @Author yeonon
+ * @date 2018/12/19 0019 10:40
+ **/
+final class CachedResource implements StaticResource {
+
+    final ByteBuf content;
+
+    private final String contentType;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    private final int sidecars;
+
+    //文件系统中的资源，用来检查文件是否被修改过；jar中的资源为null，不会变化
+    private final File file;
+
+    //源文件的长度，压缩过的内容和源文件的长度不一样
+    private final long sourceLength;
+
+    private volatile long checkedAt;
+
+    CachedResource(ByteBuf content, String contentType, long lastModified, File file, int sidecars) {
+        //jar中文件的修改时间只精确到2秒，只能作为弱校验
+        this(content, contentType, lastModified, file, content.readableBytes(), sidecars, file == null
+                ? LmResource.weakEtag(lastModified, content.readableBytes())
+                : LmResource.strongEtag(lastModified, content.readableBytes()));
+    }
+
+    private CachedResource(ByteBuf content, String contentType, long lastModified, File file,
+                           long sourceLength, int sidecars, String etag) {
+        this.content = content.asReadOnly();
+        this.contentType = contentType;
+        this.lastModified = lastModified;
+        this.file = file;
+        this.sourceLength = sourceLength;
+        this.sidecars = sidecars;
+        this.etag = etag;
+        this.checkedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * 用压缩后的内容创建一个新的缓存，ETag加上编码作为后缀，和源文件使用同样的方式检查是否过期
+     * @param encoded 压缩后的内容
+     * @param encoding 编码，例如gzip
+     * @return 压缩后的资源
+     */
+    CachedResource encoded(ByteBuf encoded, String encoding) {
+        String encodedEtag = etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        return new CachedResource(encoded, contentType, lastModified, file, sourceLength, 0, encodedEtag);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long length() {
+        return content.readableBytes();
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String etag() {
+        return etag;
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return true;
+    }
+
+    @Override
+    public Object body(long offset, long length) {
+        return content.retainedSlice((int) offset, (int) length);
+    }
+
+    @Override
+    public int sidecars() {
+        return sidecars;
+    }
+
+    /**
+     * 文件是否已经被修改或者删除，每隔一段时间才真正检查一次
+     */
+    boolean isStale(long checkInterval) {
+        if (file == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - checkedAt < checkInterval) {
+            return false;
+        }
+        checkedAt = now;
+        return file.lastModified() != lastModified || file.length() != sourceLength;
+    }
+}
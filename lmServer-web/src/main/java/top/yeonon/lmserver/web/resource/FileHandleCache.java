@@ -0,0 +1,67 @@
+package top.yeonon.lmserver.web.resource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 大文件的句柄缓存，按LRU淘汰，避免每次请求都打开、关闭文件
+ * @Author yeonon
+ * @date 2018/12/19 0019 11:20
+ **/
+final class FileHandleCache {
+
+    private final int capacity;
+
+    private final LinkedHashMap<String, OpenFile> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+    FileHandleCache(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 获取句柄，返回的句柄已经retain过，调用者负责释放
+     * @param path 规范化之后的路径
+     * @return 句柄，没有缓存则返回null
+     */
+    synchronized OpenFile acquire(String path) {
+        OpenFile file = handles.get(path);
+        if (file != null) {
+            file.retain();
+        }
+        return file;
+    }
+
+    /**
+     * 放入缓存
+     * @param path 规范化之后的路径
+     * @param file 新打开的句柄，引用计数为1
+     * @return 该句柄，调用者持有一个引用，负责释放
+     */
+    synchronized OpenFile put(String path, OpenFile file) {
+        if (capacity <= 0) {
+            return file;
+        }
+        OpenFile old = handles.put(path, file);
+        if (old != null) {
+            old.release();
+        }
+        Iterator<Map.Entry<String, OpenFile>> iterator = handles.entrySet().iterator();
+        while (handles.size() > capacity && iterator.hasNext()) {
+            OpenFile eldest = iterator.next().getValue();
+            iterator.remove();
+            eldest.release();
+        }
+        file.retain();
+        return file;
+    }
+
+    /**
+     * 删除已经过期的句柄
+     */
+    synchronized void remove(String path, OpenFile file) {
+        if (handles.remove(path, file)) {
+            file.release();
+        }
+    }
+}
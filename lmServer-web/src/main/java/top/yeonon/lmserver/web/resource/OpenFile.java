@@ -0,0 +1,114 @@
+package top.yeonon.lmserver.web.resource;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.http.LmResource;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * 缓存的文件句柄，FileChannel按位置读取是线程安全的，多个响应（以及Range请求的多个范围）可以同时使用同一个句柄
+ *
+ * 句柄缓存和每个正在发送的响应各持有一个引用，都释放之后才关闭文件
+ * @Author yeonon
+ * @date 2018/12/19 0019 11:10
+ **/
+final class OpenFile extends AbstractReferenceCounted implements StaticResource {
+
+    private static final Logger log = Logger.getLogger(OpenFile.class);
+
+    final FileChannel channel;
+
+    private final String contentType;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    private final int sidecars;
+
+    private final File file;
+
+    private volatile long checkedAt;
+
+    OpenFile(FileChannel channel, String contentType, long length, long lastModified, File file, int sidecars) {
+        this.channel = channel;
+        this.contentType = contentType;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.file = file;
+        this.sidecars = sidecars;
+        this.checkedAt = System.currentTimeMillis();
+        this.etag = LmResource.strongEtag(lastModified, length);
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String etag() {
+        return etag;
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return true;
+    }
+
+    /**
+     * 每一段都是一个使用该句柄的FileRegion，各自持有一个引用
+     */
+    @Override
+    public Object body(long offset, long length) {
+        retain();
+        return new OpenFileRegion(this, offset, length);
+    }
+
+    /**
+     * 文件是否已经被修改或者删除，每隔一段时间才真正检查一次
+     */
+    boolean isStale(long checkInterval) {
+        long now = System.currentTimeMillis();
+        if (now - checkedAt < checkInterval) {
+            return false;
+        }
+        checkedAt = now;
+        return file.lastModified() != lastModified || file.length() != length;
+    }
+
+    @Override
+    public int sidecars() {
+        return sidecars;
+    }
+
+    @Override
+    protected void deallocate() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("can't close file : " + file, e);
+        }
+    }
+
+    @Override
+    public ReferenceCounted touch(Object hint) {
+        return this;
+    }
+}
@@ -0,0 +1,23 @@
+package top.yeonon.lmserver.web.resource;
+
+import io.netty.channel.DefaultFileRegion;
+
+/**
+ * 使用缓存句柄的FileRegion，发送完成之后只释放对句柄的引用，不关闭文件
+ * @Author yeonon
+ * @date 2018/12/19 0019 11:30
+ **/
+final class OpenFileRegion extends DefaultFileRegion {
+
+    private final OpenFile file;
+
+    OpenFileRegion(OpenFile file, long position, long count) {
+        super(file.channel, position, count);
+        this.file = file;
+    }
+
+    @Override
+    protected void deallocate() {
+        file.release();
+    }
+}
@@ -0,0 +1,79 @@
+package top.yeonon.lmserver.web.resource;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 小文件的内存缓存，按LRU淘汰，缓存的总大小不超过预算
+ *
+ * 取出的时候在锁内retain，被淘汰的缓存只是释放缓存自己持有的引用，正在发送的响应不受影响
+ * @Author yeonon
+ * @date 2018/12/19 0019 10:50
+ **/
+final class ResourceCache {
+
+    private final long capacity;
+
+    private long size;
+
+    private final LinkedHashMap<String, CachedResource> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+    ResourceCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 获取缓存，返回的资源已经retain过，调用者负责释放
+     * @param path 规范化之后的路径
+     * @return 资源，没有缓存则返回null
+     */
+    synchronized CachedResource acquire(String path) {
+        CachedResource resource = entries.get(path);
+        if (resource != null) {
+            resource.content.retain();
+        }
+        return resource;
+    }
+
+    /**
+     * 放入缓存，超过预算的资源不缓存，直接交给调用者
+     * @param path 规范化之后的路径
+     * @param resource 新加载的资源，引用计数为1
+     * @return 该资源，调用者持有一个引用，负责释放
+     */
+    synchronized CachedResource put(String path, CachedResource resource) {
+        if (resource.length() > capacity) {
+            return resource;
+        }
+        CachedResource old = entries.put(path, resource);
+        if (old != null) {
+            size -= old.length();
+            old.content.release();
+        }
+        size += resource.length();
+        evict();
+        resource.content.retain();
+        return resource;
+    }
+
+    /**
+     * 删除已经过期的缓存
+     */
+    synchronized void remove(String path, CachedResource resource) {
+        if (entries.remove(path, resource)) {
+            size -= resource.length();
+            resource.content.release();
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CachedResource>> iterator = entries.entrySet().iterator();
+        while (size > capacity && iterator.hasNext()) {
+            CachedResource eldest = iterator.next().getValue();
+            iterator.remove();
+            size -= eldest.length();
+            eldest.content.release();
+        }
+    }
+}
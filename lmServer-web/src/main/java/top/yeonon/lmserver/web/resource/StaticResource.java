@@ -0,0 +1,22 @@
+package top.yeonon.lmserver.web.resource;
+
+import top.yeonon.lmserver.web.http.LmResource;
+
+/**
+ * 静态资源，记录加载的时候发现的预先压缩好的同名文件（例如app.js.gz、app.js.br）
+ * @Author yeonon
+ * @date 2018/12/21 0021 11:00
+ **/
+interface StaticResource extends LmResource {
+
+    //有.gz文件
+    int GZIP = 1;
+
+    //有.br文件
+    int BROTLI = 2;
+
+    /**
+     * @return 预先压缩好的文件，GZIP和BROTLI的组合
+     */
+    int sidecars();
+}
@@ -0,0 +1,403 @@
+package top.yeonon.lmserver.web.resource;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.http.Compression;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.MimeTypes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.JarURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 静态资源，没有匹配到路由的GET、HEAD请求会在这里查找静态资源
+ *
+ * 1. 小文件读到Channel分配的（池化）直接内存中缓存起来，按LRU淘汰，总大小不超过预算，发送的时候多个连接共享同一块只读内存
+ * 2. 大文件使用FileRegion发送（Linux下是sendfile，零拷贝），打开的文件句柄也会缓存起来复用
+ * 3. 静态资源默认在classpath的static目录下，也可以配置成文件系统中的目录（file:开头）。
+ *    打包成jar之后同样可以访问，只是jar中的文件没办法零拷贝，大文件会分块读取
+ * 4. 路径中的.和..以及以.开头的隐藏文件一律当作不存在，文件系统中的资源还会检查真实路径（符号链接）是否在静态资源目录内
+ * 5. 响应带有ETag和Last-Modified，由LmResponse处理条件请求（304）和Range请求（206）
+ * 6. 客户端支持压缩的时候，优先使用预先压缩好的同名文件（.br、.gz），没有的话可以压缩的小文件会压缩一次之后缓存起来，不会每次都重新压缩
+ * @Author yeonon
+ * @date 2018/12/19 0019 11:40
+ **/
+public final class StaticResources {
+
+    private static final Logger log = Logger.getLogger(StaticResources.class);
+
+    private static final String FILE_PREFIX = "file:";
+
+    private static final String INDEX_FILE = "index.html";
+
+    private static final String GZIP = "gzip";
+
+    private static final String BROTLI = "br";
+
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private static final String BROTLI_SUFFIX = ".br";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    //文件系统中的资源每隔这么久检查一次是否被修改过
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    //classpath中的资源前缀，例如static
+    private static volatile String classpathLocation;
+
+    //静态资源在文件系统中的目录（真实路径），为null表示只能通过ClassLoader查找（例如在jar中）
+    private static volatile File root;
+
+    private static volatile String rootPath;
+
+    private static volatile long maxCachedFileSize = 64 * 1024;
+
+    private static volatile ResourceCache cache = new ResourceCache(32 * 1024 * 1024);
+
+    private static volatile FileHandleCache fileHandles = new FileHandleCache(256);
+
+    static {
+        setLocation("static");
+    }
+
+    private StaticResources() {
+    }
+
+    /**
+     * 配置静态资源，需要在服务启动之前调用
+     * @param location 静态资源的位置，classpath中的目录（例如static），或者以file:开头的文件系统目录
+     * @param cacheSize 内存缓存的总大小（字节）
+     * @param cacheMaxFileSize 不超过这个大小的文件才缓存到内存中，更大的文件使用FileRegion发送
+     * @param maxOpenFiles 最多缓存多少个打开的文件句柄
+     */
+    public static void configure(String location, long cacheSize, long cacheMaxFileSize, int maxOpenFiles) {
+        setLocation(location);
+        maxCachedFileSize = Math.min(cacheMaxFileSize, Integer.MAX_VALUE);
+        cache = new ResourceCache(cacheSize);
+        fileHandles = new FileHandleCache(maxOpenFiles);
+    }
+
+    private static void setLocation(String location) {
+        File dir = null;
+        if (location.startsWith(FILE_PREFIX)) {
+            dir = new File(location.substring(FILE_PREFIX.length()));
+            classpathLocation = null;
+        } else {
+            classpathLocation = trimSlash(location);
+            //classpath中的目录在文件系统中（例如开发环境），直接按文件访问，不需要每次都通过ClassLoader查找
+            URL url = StaticResources.class.getClassLoader().getResource(classpathLocation);
+            if (url != null && "file".equals(url.getProtocol())) {
+                try {
+                    dir = new File(url.toURI());
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    log.warn("can't resolve static location : " + url, e);
+                }
+            }
+        }
+        if (dir != null) {
+            try {
+                dir = dir.getCanonicalFile();
+            } catch (IOException e) {
+                log.warn("can't resolve static location : " + dir, e);
+                dir = null;
+            }
+        }
+        root = dir;
+        rootPath = dir == null ? null : dir.getPath() + File.separator;
+    }
+
+    /**
+     * 查找并发送静态资源
+     * @param ctx ChannelHandlerContext
+     * @param request 请求
+     * @param response 响应
+     * @return 是否找到了静态资源，找到了会直接发送响应
+     * @throws IOException 读取文件失败
+     */
+    public static boolean serve(ChannelHandlerContext ctx, LmRequest request, LmResponse response) throws IOException {
+        LmRequest.LMHttpMethod method = request.getMethod();
+        if (method != LmRequest.LMHttpMethod.GET && method != LmRequest.LMHttpMethod.HEAD) {
+            return false;
+        }
+        String path = normalize(request.getPath());
+        if (path == null) {
+            return false;
+        }
+        StaticResource resource = lookup(ctx, path, null);
+        if (resource == null) {
+            return false;
+        }
+        StaticResource encoded = null;
+        try {
+            String encoding = null;
+            boolean compressible = Compression.isCompressible(resource.contentType());
+            if (Compression.isEnabled() && (compressible || resource.sidecars() != 0)) {
+                //同一个路径可能返回不同编码的内容，缓存需要区分Accept-Encoding
+                response.addHeaders(HttpHeaderNames.VARY.toString(), HttpHeaderNames.ACCEPT_ENCODING.toString());
+                String acceptEncoding = request.getHeader(HttpHeaderNames.ACCEPT_ENCODING);
+                if ((resource.sidecars() & StaticResource.BROTLI) != 0 && Compression.accepts(acceptEncoding, BROTLI)) {
+                    encoded = lookup(ctx, path + BROTLI_SUFFIX, resource.contentType());
+                    encoding = BROTLI;
+                }
+                if (encoded == null && Compression.accepts(acceptEncoding, GZIP)) {
+                    if ((resource.sidecars() & StaticResource.GZIP) != 0) {
+                        encoded = lookup(ctx, path + GZIP_SUFFIX, resource.contentType());
+                    } else if (compressible && resource instanceof CachedResource
+                            && resource.length() >= Compression.getMinSize()) {
+                        encoded = gzip(ctx, path, (CachedResource) resource);
+                    }
+                    encoding = GZIP;
+                }
+            }
+            if (encoded != null) {
+                response.setHeaders(HttpHeaderNames.CONTENT_ENCODING.toString(), encoding);
+                response.send(encoded);
+            } else {
+                response.send(resource);
+            }
+        } finally {
+            release(resource);
+            release(encoded);
+        }
+        return true;
+    }
+
+    /**
+     * 查找资源，先查缓存，没有再加载
+     * @param path 规范化之后的路径
+     * @param contentType 预先压缩好的文件使用源文件的Content-Type，其他情况为null
+     * @return 资源，已经retain过，使用完之后需要调用release；不存在返回null
+     */
+    private static StaticResource lookup(ChannelHandlerContext ctx, String path, String contentType) throws IOException {
+        ResourceCache cache = StaticResources.cache;
+        CachedResource cached = cache.acquire(path);
+        if (cached != null && cached.isStale(CHECK_INTERVAL_MILLIS)) {
+            cache.remove(path, cached);
+            cached.content.release();
+            cached = null;
+        }
+        if (cached != null) {
+            return cached;
+        }
+
+        FileHandleCache fileHandles = StaticResources.fileHandles;
+        OpenFile openFile = fileHandles.acquire(path);
+        if (openFile != null && openFile.isStale(CHECK_INTERVAL_MILLIS)) {
+            fileHandles.remove(path, openFile);
+            openFile.release();
+            openFile = null;
+        }
+        if (openFile != null) {
+            return openFile;
+        }
+
+        if (root != null) {
+            return loadFile(ctx, path, contentType);
+        }
+        return loadClasspathResource(ctx, path, contentType);
+    }
+
+    /**
+     * 从文件系统中加载
+     */
+    private static StaticResource loadFile(ChannelHandlerContext ctx, String path, String contentType) throws IOException {
+        File file = new File(root, path.substring(1));
+        if (file.isDirectory()) {
+            //目录使用其中的index.html
+            return path.endsWith("/" + INDEX_FILE) ? null : loadFile(ctx, path + "/" + INDEX_FILE, contentType);
+        }
+        if (!file.isFile() || !file.getCanonicalPath().startsWith(rootPath)) {
+            return null;
+        }
+        int sidecars = 0;
+        if (contentType == null) {
+            contentType = MimeTypes.of(path);
+            if (new File(file.getPath() + GZIP_SUFFIX).isFile()) {
+                sidecars |= StaticResource.GZIP;
+            }
+            if (new File(file.getPath() + BROTLI_SUFFIX).isFile()) {
+                sidecars |= StaticResource.BROTLI;
+            }
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        if (length <= maxCachedFileSize) {
+            ByteBuf content = ctx.alloc().directBuffer((int) length);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while (content.isWritable()) {
+                    if (content.writeBytes(channel, content.writerIndex(), content.writableBytes()) < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                content.release();
+                throw e;
+            }
+            return cache.put(path, new CachedResource(content, contentType, lastModified, file, sidecars));
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        return fileHandles.put(path, new OpenFile(channel, contentType, length, lastModified, file, sidecars));
+    }
+
+    /**
+     * 通过ClassLoader加载，例如打包在jar中的资源
+     */
+    private static StaticResource loadClasspathResource(ChannelHandlerContext ctx, String path, String contentType) throws IOException {
+        if (classpathLocation == null) {
+            return null;
+        }
+        ClassLoader classLoader = StaticResources.class.getClassLoader();
+        URL url = classLoader.getResource(classpathLocation + path);
+        if (url == null) {
+            return null;
+        }
+        URLConnection connection = url.openConnection();
+        if (connection instanceof JarURLConnection && ((JarURLConnection) connection).getJarEntry().isDirectory()) {
+            //jar中的目录，同样使用其中的index.html
+            return path.endsWith("/" + INDEX_FILE) ? null : loadClasspathResource(ctx, path + "/" + INDEX_FILE, contentType);
+        }
+        long length = connection.getContentLengthLong();
+        if (length < 0) {
+            //长度未知，当作不存在
+            return null;
+        }
+        int sidecars = 0;
+        if (contentType == null) {
+            contentType = MimeTypes.of(path);
+            if (classLoader.getResource(classpathLocation + path + GZIP_SUFFIX) != null) {
+                sidecars |= StaticResource.GZIP;
+            }
+            if (classLoader.getResource(classpathLocation + path + BROTLI_SUFFIX) != null) {
+                sidecars |= StaticResource.BROTLI;
+            }
+        }
+        if (length > maxCachedFileSize) {
+            //只有真正需要发送内容的时候才会打开输入流
+            return new StreamResource(connection, contentType, length, sidecars);
+        }
+        ByteBuf content = ctx.alloc().directBuffer((int) length);
+        try (InputStream input = connection.getInputStream()) {
+            while (content.isWritable()) {
+                if (content.writeBytes(input, content.writableBytes()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            content.release();
+            throw e;
+        }
+        return cache.put(path, new CachedResource(content, contentType, connection.getLastModified(), null, sidecars));
+    }
+
+    /**
+     * 没有预先压缩好的文件时，压缩一次之后和源文件一样放到缓存中，之后的请求直接使用
+     * @return 压缩后的资源，已经retain过；压缩之后没有变小则返回null
+     */
+    private static CachedResource gzip(ChannelHandlerContext ctx, String path, CachedResource resource) throws IOException {
+        //\0不会出现在规范化之后的路径中，不会和真实的文件冲突
+        String key = path + "\0" + GZIP;
+        CachedResource cached = cache.acquire(key);
+        if (cached != null && cached.isStale(CHECK_INTERVAL_MILLIS)) {
+            cache.remove(key, cached);
+            cached.content.release();
+            cached = null;
+        }
+        if (cached != null) {
+            return cached;
+        }
+        int length = (int) resource.length();
+        ByteBuf encoded = ctx.alloc().directBuffer(length / 2);
+        try (OutputStream out = new GZIPOutputStream(new ByteBufOutputStream(encoded), CHUNK_SIZE) {
+            {
+                def.setLevel(Compression.getLevel());
+            }
+        }) {
+            resource.content.getBytes(0, out, length);
+        } catch (IOException e) {
+            encoded.release();
+            throw e;
+        }
+        if (encoded.readableBytes() >= length) {
+            encoded.release();
+            return null;
+        }
+        return cache.put(key, resource.encoded(encoded, GZIP));
+    }
+
+    /**
+     * 释放lookup得到的资源
+     */
+    private static void release(StaticResource resource) {
+        if (resource instanceof CachedResource) {
+            ((CachedResource) resource).content.release();
+        } else if (resource instanceof OpenFile) {
+            ((OpenFile) resource).release();
+        }
+    }
+
+    /**
+     * 规范化请求路径：解码%XX，去掉多余的/，以/结尾的补上index.html。
+     * 包含.、..或者以.开头的路径段都当作不存在，保证不会访问到静态资源目录之外的文件。
+     * 静态资源的Filter和拦截器也按这个路径匹配，和实际查找的文件保持一致
+     * @param rawPath 请求路径（未解码）
+     * @return 规范化之后的路径，以/开头；非法的路径返回null
+     */
+    public static String normalize(String rawPath) {
+        String path;
+        try {
+            path = new URI(rawPath).getPath();
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        if (path == null || path.indexOf('\\') >= 0 || path.indexOf('\0') >= 0) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(path.length() + INDEX_FILE.length());
+        int start = 0;
+        int length = path.length();
+        while (start < length) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                if (path.charAt(start) == '.') {
+                    return null;
+                }
+                builder.append('/').append(path, start, end);
+            }
+            start = end + 1;
+        }
+        if (builder.length() == 0 || path.endsWith("/")) {
+            builder.append('/').append(INDEX_FILE);
+        }
+        return builder.toString();
+    }
+
+    private static String trimSlash(String location) {
+        int start = 0;
+        int end = location.length();
+        while (start < end && location.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && location.charAt(end - 1) == '/') {
+            end--;
+        }
+        return location.substring(start, end);
+    }
+}
@@ -0,0 +1,73 @@
+package top.yeonon.lmserver.web.resource;
+
+import io.netty.handler.stream.ChunkedStream;
+import top.yeonon.lmserver.web.http.LmResource;
+
+import java.io.IOException;
+import java.net.URLConnection;
+
+/**
+ * jar中超过缓存大小的文件，没办法零拷贝，也不支持Range，发送的时候才打开输入流分块读取
+ * @Author yeonon
+ * @date 2018/12/20 0020 11:20
+ **/
+final class StreamResource implements StaticResource {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private final URLConnection connection;
+
+    private final String contentType;
+
+    private final long length;
+
+    private final long lastModified;
+
+    private final String etag;
+
+    private final int sidecars;
+
+    StreamResource(URLConnection connection, String contentType, long length, int sidecars) {
+        this.connection = connection;
+        this.contentType = contentType;
+        this.length = length;
+        this.lastModified = connection.getLastModified();
+        this.etag = LmResource.weakEtag(lastModified, length);
+        this.sidecars = sidecars;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long lastModified() {
+        return lastModified;
+    }
+
+    @Override
+    public String etag() {
+        return etag;
+    }
+
+    @Override
+    public boolean isRangeSupported() {
+        return false;
+    }
+
+    @Override
+    public int sidecars() {
+        return sidecars;
+    }
+
+    @Override
+    public Object body(long offset, long length) throws IOException {
+        return new ChunkedStream(connection.getInputStream(), CHUNK_SIZE);
+    }
+}
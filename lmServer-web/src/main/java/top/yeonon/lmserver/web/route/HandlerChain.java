@@ -0,0 +1,136 @@
+package top.yeonon.lmserver.web.route;
+
+import top.yeonon.lmserver.web.annotation.RequestMapping;
+import top.yeonon.lmserver.web.executor.HandlerExecutor;
+import top.yeonon.lmserver.web.filter.LmFilter;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.LmUploadedFile;
+import top.yeonon.lmserver.web.interceptor.LmInterceptor;
+import top.yeonon.lmserver.web.json.JsonResponseWriter;
+import top.yeonon.lmserver.web.method.MethodHandler;
+
+import java.util.Arrays;
+
+/**
+ * 一条路由上某个请求方法对应的完整调用链：排好序的Filter、拦截器以及最终的MethodHandler
+ *
+ * 在启动的时候就构建好，之后不会再修改，请求过来的时候只需要遍历数组即可，不需要再根据路径查找Filter和拦截器
+ * @Author yeonon
+ * @date 2018/12/9 0009 14:10
+ **/
+public final class HandlerChain {
+
+    private final LmFilter[] filters;
+
+    private final LmInterceptor[] interceptors;
+
+    private final MethodHandler methodHandler;
+
+    //每条路由单独的JSON序列化器，会记住这条路由的响应大小
+    private final JsonResponseWriter responseWriter = new JsonResponseWriter();
+
+    //是否放到工作线程池中执行
+    private final boolean blocking;
+
+    //是否以流的方式接收请求体
+    private final boolean streaming;
+
+    //请求体的最大长度，小于等于0表示使用全局配置
+    private final long maxBodySize;
+
+    //处理方法是否有上传文件的参数，有的话multipart请求会在接收的时候就逐块解码
+    private final boolean acceptUploads;
+
+    //是否允许压缩响应
+    private final boolean compress;
+
+    HandlerChain(LmFilter[] filters, LmInterceptor[] interceptors, MethodHandler methodHandler) {
+        this.filters = filters;
+        this.interceptors = interceptors;
+        this.methodHandler = methodHandler;
+        RequestMapping mapping = methodHandler.getMethod().getAnnotation(RequestMapping.class);
+        this.streaming = mapping != null && mapping.streaming();
+        this.maxBodySize = mapping == null ? -1 : mapping.maxBodySize();
+        this.compress = mapping == null || mapping.compress();
+        this.acceptUploads = Arrays.stream(methodHandler.getMethod().getGenericParameterTypes())
+                .anyMatch(LmUploadedFile::isUploadType);
+        //流式请求体的读取是阻塞的，不能在IO线程里执行
+        this.blocking = streaming || HandlerExecutor.isBlocking(methodHandler.getMethod());
+    }
+
+    /**
+     * 按顺序执行Filter
+     *
+     * @param request 请求
+     */
+    public void applyFilters(LmRequest request) {
+        for (LmFilter filter : filters) {
+            filter.doFilter(request);
+        }
+    }
+
+    /**
+     * 按顺序执行拦截器的preHandler，一旦有一个拦截器返回false，就没有必要执行之后的拦截器逻辑了
+     *
+     * @param request  请求
+     * @param response 响应
+     * @return 是否通过所有拦截器
+     */
+    public boolean applyPreHandler(LmRequest request, LmResponse response) {
+        for (LmInterceptor interceptor : interceptors) {
+            if (!interceptor.preHandler(request, response)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 反向执行拦截器的postHandler
+     *
+     * @param request  请求
+     * @param response 响应
+     */
+    public void applyPostHandler(LmRequest request, LmResponse response) {
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            interceptors[i].postHandler(request, response);
+        }
+    }
+
+    public LmFilter[] getFilters() {
+        return filters.clone();
+    }
+
+    public LmInterceptor[] getInterceptors() {
+        return interceptors.clone();
+    }
+
+    public MethodHandler getMethodHandler() {
+        return methodHandler;
+    }
+
+    public JsonResponseWriter getResponseWriter() {
+        return responseWriter;
+    }
+
+    public boolean isBlocking() {
+        return blocking;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public boolean isAcceptUploads() {
+        return acceptUploads;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+}
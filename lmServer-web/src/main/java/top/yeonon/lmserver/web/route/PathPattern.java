@@ -0,0 +1,123 @@
+package top.yeonon.lmserver.web.route;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Ant风格的路径模式，用于Filter和拦截器的路径匹配，支持：
+ * 1. ? 匹配一个字符
+ * 2. * 匹配一段中的任意个字符，例如 /api/*.json
+ * 3. ** 匹配任意多段（包括零段），例如 /api/** 就是前缀匹配
+ * 4. {name} 匹配任意一段，和 * 效果相同
+ *
+ * 路由上的Filter和拦截器匹配的是路由的路径模板，而不是请求路径，这样在启动的时候就可以确定每条路由上的Filter和拦截器。
+ * 模板中的路径变量和 * 只能被模式中的 *、{name} 或者 ** 匹配，模板中的 ** 只能被模式中的 ** 匹配。
+ * 静态资源没有路径模板，使用matchesPath按请求路径匹配，路径中的每一段都当作普通字符。
+ * @Author yeonon
+ * @date 2018/12/9 0009 13:40
+ **/
+public final class PathPattern {
+
+    private static final String DEEP_WILDCARD = "**";
+
+    private final String pattern;
+
+    private final String[] segments;
+
+    public PathPattern(String pattern) {
+        this.pattern = Router.normalize(pattern);
+        this.segments = StringUtils.split(this.pattern, '/');
+    }
+
+    /**
+     * 判断路由的路径模板是否被该模式匹配
+     *
+     * @param routePattern 路由的路径模板
+     * @return 是否匹配
+     */
+    public boolean matches(String routePattern) {
+        return matchSegments(segments, 0, StringUtils.split(routePattern, '/'), 0, false);
+    }
+
+    /**
+     * 判断请求路径是否被该模式匹配，路径中的 *、{name} 等都当作普通字符
+     *
+     * @param path 解码之后的请求路径
+     * @return 是否匹配
+     */
+    public boolean matchesPath(String path) {
+        return matchSegments(segments, 0, StringUtils.split(path, '/'), 0, true);
+    }
+
+    private static boolean matchSegments(String[] patterns, int pi, String[] route, int ri, boolean literal) {
+        if (pi == patterns.length) {
+            return ri == route.length;
+        }
+        String pattern = patterns[pi];
+        if (DEEP_WILDCARD.equals(pattern)) {
+            //** 依次尝试匹配零段、一段、多段
+            for (int i = ri; i <= route.length; i++) {
+                if (matchSegments(patterns, pi + 1, route, i, literal)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (ri == route.length) {
+            return false;
+        }
+        return matchSegment(pattern, route[ri], literal) && matchSegments(patterns, pi + 1, route, ri + 1, literal);
+    }
+
+    /**
+     * 匹配单独的一段
+     */
+    private static boolean matchSegment(String pattern, String segment, boolean literal) {
+        boolean anySegment = "*".equals(pattern) || isVariable(pattern);
+        if (literal) {
+            return anySegment || matchGlob(pattern, 0, segment, 0);
+        }
+        if (DEEP_WILDCARD.equals(segment)) {
+            return false;
+        }
+        if ("*".equals(segment) || isVariable(segment)) {
+            return anySegment;
+        }
+        return anySegment || matchGlob(pattern, 0, segment, 0);
+    }
+
+    private static boolean isVariable(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    /**
+     * 段内的 * 和 ? 匹配
+     */
+    private static boolean matchGlob(String pattern, int pi, String text, int ti) {
+        while (pi < pattern.length()) {
+            char c = pattern.charAt(pi);
+            if (c == '*') {
+                for (int i = ti; i <= text.length(); i++) {
+                    if (matchGlob(pattern, pi + 1, text, i)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (ti == text.length() || (c != '?' && c != text.charAt(ti))) {
+                return false;
+            }
+            pi++;
+            ti++;
+        }
+        return ti == text.length();
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,100 @@
+package top.yeonon.lmserver.web.route;
+
+import top.yeonon.lmserver.core.ioc.Pair;
+import top.yeonon.lmserver.web.filter.LmFilter;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.interceptor.LmInterceptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 没有匹配路由的请求（静态资源或者404）的调用链：匹配该请求路径的Filter和拦截器
+ *
+ * 静态资源没有路径模板，没有办法在启动的时候确定，所以每次请求的时候按请求路径匹配。
+ * 没有任何Filter和拦截器的时候直接使用EMPTY，不需要匹配
+ * @Author yeonon
+ * @date 2018/12/26 0026 10:20
+ **/
+public final class ResourceChain {
+
+    public static final ResourceChain EMPTY = new ResourceChain(new LmFilter[0], new LmInterceptor[0]);
+
+    private final LmFilter[] filters;
+
+    private final LmInterceptor[] interceptors;
+
+    private ResourceChain(LmFilter[] filters, LmInterceptor[] interceptors) {
+        this.filters = filters;
+        this.interceptors = interceptors;
+    }
+
+    /**
+     * 找出匹配该请求路径的Filter和拦截器并排好序
+     *
+     * @param path         解码之后的请求路径
+     * @param filters      所有的Filter以及它们的路径模式
+     * @param interceptors 所有的拦截器以及它们的路径模式
+     * @return 调用链
+     */
+    public static ResourceChain match(String path, List<Pair<PathPattern, LmFilter>> filters,
+                                      List<Pair<PathPattern, LmInterceptor>> interceptors) {
+        if (filters.isEmpty() && interceptors.isEmpty()) {
+            return EMPTY;
+        }
+        return new ResourceChain(match(path, filters).toArray(new LmFilter[0]),
+                match(path, interceptors).toArray(new LmInterceptor[0]));
+    }
+
+    private static <T extends Comparable<? super T>> List<T> match(String path, List<Pair<PathPattern, T>> candidates) {
+        List<T> matched = new ArrayList<>();
+        for (Pair<PathPattern, T> candidate : candidates) {
+            if (candidate.first().matchesPath(path) && !matched.contains(candidate.second())) {
+                matched.add(candidate.second());
+            }
+        }
+        Collections.sort(matched);
+        return matched;
+    }
+
+    /**
+     * 按顺序执行拦截器的preHandler，一旦有一个拦截器返回false，就没有必要执行之后的拦截器逻辑了
+     *
+     * @param request  请求
+     * @param response 响应
+     * @return 是否通过所有拦截器
+     */
+    public boolean applyPreHandler(LmRequest request, LmResponse response) {
+        for (LmInterceptor interceptor : interceptors) {
+            if (!interceptor.preHandler(request, response)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按顺序执行Filter
+     *
+     * @param request 请求
+     */
+    public void applyFilters(LmRequest request) {
+        for (LmFilter filter : filters) {
+            filter.doFilter(request);
+        }
+    }
+
+    /**
+     * 反向执行拦截器的postHandler
+     *
+     * @param request  请求
+     * @param response 响应
+     */
+    public void applyPostHandler(LmRequest request, LmResponse response) {
+        for (int i = interceptors.length - 1; i >= 0; i--) {
+            interceptors[i].postHandler(request, response);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package top.yeonon.lmserver.web.route;
+
+import top.yeonon.lmserver.core.exception.RequestMethodRepeatException;
+import top.yeonon.lmserver.core.ioc.Pair;
+import top.yeonon.lmserver.web.filter.LmFilter;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.interceptor.LmInterceptor;
+import top.yeonon.lmserver.web.method.MethodHandler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * 一条路由，即一个路径模板以及该路径下各个请求方法对应的MethodHandler
+ *
+ * MethodHandler按照LMHttpMethod的顺序（ordinal）存放在数组里，查找的时候直接用下标取，不需要遍历
+ * @Author yeonon
+ * @date 2018/12/8 0008 15:12
+ **/
+public final class Route {
+
+    private static final LmRequest.LMHttpMethod[] METHODS = LmRequest.LMHttpMethod.values();
+
+    //路径模板，例如 /users/{id}/orders
+    private final String pattern;
+
+    private final MethodHandler[] handlers = new MethodHandler[METHODS.length];
+
+    //和handlers一一对应，在所有Filter和拦截器都加载完之后才构建
+    private final HandlerChain[] chains = new HandlerChain[METHODS.length];
+
+    //405响应中Allow字段的值，注册完成之后就不会再变了，故提前算好
+    private String allow;
+
+    Route(String pattern) {
+        this.pattern = pattern;
+    }
+
+    void addHandler(LmRequest.LMHttpMethod method, MethodHandler handler) {
+        if (handlers[method.ordinal()] != null) {
+            //如果有重复，直接抛出运行时异常，结束进程即可
+            throw new RequestMethodRepeatException("don't add repeat request method on same path！ " +
+                    "repeat request method is： " + method.getName()
+                    + " and the path is: " + pattern);
+        }
+        handlers[method.ordinal()] = handler;
+
+        StringJoiner joiner = new StringJoiner(", ");
+        for (LmRequest.LMHttpMethod m : METHODS) {
+            if (handlers[m.ordinal()] != null) {
+                joiner.add(m.getName());
+            }
+        }
+        allow = joiner.toString();
+    }
+
+    /**
+     * 找出所有匹配该路由的Filter和拦截器，排好序之后和handler一起构建成调用链
+     *
+     * @param filters      所有Filter以及它们的路径模式
+     * @param interceptors 所有拦截器以及它们的路径模式
+     */
+    void buildChains(List<Pair<PathPattern, LmFilter>> filters,
+                     List<Pair<PathPattern, LmInterceptor>> interceptors) {
+        List<LmFilter> matchedFilters = match(filters);
+        List<LmInterceptor> matchedInterceptors = match(interceptors);
+        LmFilter[] filterArray = matchedFilters.toArray(new LmFilter[0]);
+        LmInterceptor[] interceptorArray = matchedInterceptors.toArray(new LmInterceptor[0]);
+        for (int i = 0; i < handlers.length; i++) {
+            if (handlers[i] != null) {
+                chains[i] = new HandlerChain(filterArray, interceptorArray, handlers[i]);
+            }
+        }
+    }
+
+    private <T extends Comparable<? super T>> List<T> match(List<Pair<PathPattern, T>> candidates) {
+        List<T> matched = new ArrayList<>();
+        for (Pair<PathPattern, T> candidate : candidates) {
+            //一个Filter（拦截器）可能有多个路径模式都匹配该路由，只需要加一次
+            if (candidate.first().matches(pattern) && !matched.contains(candidate.second())) {
+                matched.add(candidate.second());
+            }
+        }
+        Collections.sort(matched);
+        return matched;
+    }
+
+    /**
+     * 根据请求方法获取调用链
+     *
+     * @param method 请求方法
+     * @return 调用链，不支持该请求方法则返回null
+     */
+    public HandlerChain getChain(LmRequest.LMHttpMethod method) {
+        if (method == null) {
+            return null;
+        }
+        return chains[method.ordinal()];
+    }
+
+    /**
+     * 根据请求方法获取handler
+     *
+     * @param method 请求方法
+     * @return handler，不支持该请求方法则返回null
+     */
+    public MethodHandler getHandler(LmRequest.LMHttpMethod method) {
+        if (method == null) {
+            return null;
+        }
+        return handlers[method.ordinal()];
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return 该路由支持的请求方法，用作Allow字段的值
+     */
+    public String getAllow() {
+        return allow;
+    }
+}
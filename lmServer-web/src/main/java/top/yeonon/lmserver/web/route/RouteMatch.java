@@ -0,0 +1,29 @@
+package top.yeonon.lmserver.web.route;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * 路由匹配的结果，包含匹配到的路由以及从路径中解析出来的路径变量
+ * @Author yeonon
+ * @date 2018/12/8 0008 15:20
+ **/
+public final class RouteMatch {
+
+    private final Route route;
+
+    private final Map<String, String> pathVariables;
+
+    RouteMatch(Route route, Map<String, String> pathVariables) {
+        this.route = route;
+        this.pathVariables = pathVariables == null ? Collections.emptyMap() : pathVariables;
+    }
+
+    public Route getRoute() {
+        return route;
+    }
+
+    public Map<String, String> getPathVariables() {
+        return pathVariables;
+    }
+}
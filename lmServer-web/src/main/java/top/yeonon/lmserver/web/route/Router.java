@@ -0,0 +1,251 @@
+package top.yeonon.lmserver.web.route;
+
+import io.netty.util.CharsetUtil;
+import org.apache.commons.lang3.StringUtils;
+import top.yeonon.lmserver.core.ioc.Pair;
+import top.yeonon.lmserver.web.filter.LmFilter;
+import top.yeonon.lmserver.web.http.FormDecoder;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.interceptor.LmInterceptor;
+import top.yeonon.lmserver.web.method.MethodHandler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于路径段的前缀树路由
+ *
+ * 路径模板按照"/"切分成段，每一段对应树中的一个节点，支持以下几种段：
+ * 1. 普通的静态段，例如 /users
+ * 2. 路径变量，例如 /users/{id}，匹配任意一段，并把该段的值以id为名称保存下来
+ * 3. 通配符 *，匹配任意一段
+ * 4. 通配符 **，只能放在最后，匹配剩下的所有段（也可以是零段）
+ *
+ * 匹配的优先级是 静态段 > 路径变量 > * > **，静态段使用HashMap查找，
+ * 所以查找的耗时只和路径的段数有关，和注册了多少路由无关
+ * @Author yeonon
+ * @date 2018/12/8 0008 15:30
+ **/
+public final class Router {
+
+    private static final String WILDCARD = "*";
+
+    private static final String DEEP_WILDCARD = "**";
+
+    private final Node root = new Node();
+
+    private final List<Route> routes = new ArrayList<>();
+
+    /**
+     * 注册路由
+     *
+     * @param pattern 路径模板
+     * @param method  请求方法
+     * @param handler handler
+     * @return 注册之后的路由
+     */
+    public Route addRoute(String pattern, LmRequest.LMHttpMethod method, MethodHandler handler) {
+        String normalized = normalize(pattern);
+        Node node = root;
+        List<String> paramNames = new ArrayList<>();
+        String[] segments = StringUtils.split(normalized, '/');
+        for (int i = 0; i < segments.length; i++) {
+            String segment = segments[i];
+            if (DEEP_WILDCARD.equals(segment)) {
+                if (i != segments.length - 1) {
+                    throw new IllegalArgumentException("'**' must be the last segment of the path: " + pattern);
+                }
+                if (node.deepWildcardChild == null) {
+                    node.deepWildcardChild = new Node();
+                }
+                node = node.deepWildcardChild;
+            } else if (WILDCARD.equals(segment)) {
+                if (node.wildcardChild == null) {
+                    node.wildcardChild = new Node();
+                }
+                node = node.wildcardChild;
+            } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                String paramName = segment.substring(1, segment.length() - 1).trim();
+                if (paramName.isEmpty() || paramNames.contains(paramName)) {
+                    throw new IllegalArgumentException("illegal path variable " + segment + " in path: " + pattern);
+                }
+                paramNames.add(paramName);
+                if (node.paramChild == null) {
+                    node.paramChild = new Node();
+                }
+                node = node.paramChild;
+            } else {
+                node = node.staticChildren.computeIfAbsent(segment, key -> new Node());
+            }
+        }
+
+        if (node.route == null) {
+            node.route = new Route(normalized);
+            node.paramNames = paramNames.toArray(new String[0]);
+            routes.add(node.route);
+        } else if (!paramNames.equals(Arrays.asList(node.paramNames))) {
+            throw new IllegalArgumentException("path " + pattern + " conflicts with " + node.route.getPattern());
+        }
+        node.route.addHandler(method, handler);
+        return node.route;
+    }
+
+    /**
+     * 根据请求路径查找路由
+     *
+     * @param path 请求路径（不包含Query参数）
+     * @return 匹配结果，没有匹配的路由则返回null
+     */
+    public RouteMatch match(String path) {
+        Variables variables = new Variables();
+        Node node = match(root, path, skipSlash(path, 0), variables);
+        if (node == null) {
+            return null;
+        }
+        if (node.paramNames.length == 0) {
+            return new RouteMatch(node.route, null);
+        }
+        Map<String, String> pathVariables = new HashMap<>(node.paramNames.length * 2);
+        for (int i = 0; i < node.paramNames.length; i++) {
+            pathVariables.put(node.paramNames[i], FormDecoder.decodePathSegment(variables.values[i], CharsetUtil.UTF_8));
+        }
+        return new RouteMatch(node.route, pathVariables);
+    }
+
+    /**
+     * 递归匹配，静态段匹配失败的话会回溯尝试路径变量和通配符
+     *
+     * @param node      当前节点
+     * @param path      请求路径
+     * @param start     当前段在path中的起始位置
+     * @param variables 已经匹配到的路径变量值
+     * @return 匹配到的节点
+     */
+    private Node match(Node node, String path, int start, Variables variables) {
+        if (start >= path.length()) {
+            if (node.route != null) {
+                return node;
+            }
+            //** 也可以匹配零段
+            if (node.deepWildcardChild != null && node.deepWildcardChild.route != null) {
+                return node.deepWildcardChild;
+            }
+            return null;
+        }
+
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        int next = skipSlash(path, end);
+
+        Node child = node.staticChildren.get(path.substring(start, end));
+        if (child != null) {
+            Node result = match(child, path, next, variables);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (node.paramChild != null) {
+            int mark = variables.size;
+            variables.push(path.substring(start, end));
+            Node result = match(node.paramChild, path, next, variables);
+            if (result != null) {
+                return result;
+            }
+            variables.size = mark;
+        }
+
+        if (node.wildcardChild != null) {
+            Node result = match(node.wildcardChild, path, next, variables);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        if (node.deepWildcardChild != null && node.deepWildcardChild.route != null) {
+            return node.deepWildcardChild;
+        }
+        return null;
+    }
+
+    /**
+     * 所有的路由都注册完之后调用，为每条路由构建调用链
+     *
+     * @param filters      所有Filter以及它们的路径模式
+     * @param interceptors 所有拦截器以及它们的路径模式
+     */
+    public void buildChains(List<Pair<PathPattern, LmFilter>> filters,
+                            List<Pair<PathPattern, LmInterceptor>> interceptors) {
+        for (Route route : routes) {
+            route.buildChains(filters, interceptors);
+        }
+    }
+
+    /**
+     * @return 所有注册过的路由
+     */
+    public Collection<Route> getRoutes() {
+        return routes;
+    }
+
+    private static int skipSlash(String path, int index) {
+        while (index < path.length() && path.charAt(index) == '/') {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 规范化路径模板，去掉多余的"/"
+     */
+    static String normalize(String pattern) {
+        String[] segments = StringUtils.split(pattern.trim(), '/');
+        if (segments.length == 0) {
+            return "/";
+        }
+        return "/" + StringUtils.join(segments, '/');
+    }
+
+
+    /**
+     * 匹配过程中已经解析出来的路径变量值，回溯的时候直接修改size即可
+     */
+    private static final class Variables {
+
+        private String[] values = new String[4];
+
+        private int size;
+
+        private void push(String value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    /**
+     * 前缀树节点
+     */
+    private static final class Node {
+
+        private final Map<String, Node> staticChildren = new HashMap<>();
+
+        private Node paramChild;
+
+        private Node wildcardChild;
+
+        private Node deepWildcardChild;
+
+        //以下两个字段只有在节点对应一条路由的时候才有值
+        private Route route;
+
+        private String[] paramNames;
+    }
+}
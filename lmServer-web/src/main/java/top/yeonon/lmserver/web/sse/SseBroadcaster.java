@@ -0,0 +1,94 @@
+package top.yeonon.lmserver.web.sse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import top.yeonon.lmserver.web.http.LmResponse;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 广播组：一个事件只编码一次到共享的Buffer中，每个订阅者写出的是它的retainedDuplicate，
+ * 订阅者再多也只有一份数据，Buffer在最后一个连接发送完成之后释放
+ *
+ * 订阅者断开或者事件流结束之后会自动从组中移除，可以在任意线程中广播
+ * @Author yeonon
+ * @date 2018/12/23 0023 20:50
+ **/
+public class SseBroadcaster {
+
+    private final Set<SseEmitter> emitters = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 打开事件流并加入该组
+     *
+     * @param response 响应
+     * @return SseEmitter，处理方法直接返回即可
+     */
+    public SseEmitter subscribe(LmResponse response) {
+        SseEmitter emitter = SseEmitter.open(response);
+        add(emitter);
+        return emitter;
+    }
+
+    /**
+     * 加入该组，事件流已经结束的时候什么也不做
+     */
+    public void add(SseEmitter emitter) {
+        if (emitter.join(this)) {
+            emitters.add(emitter);
+            //join和add之间连接可能刚好断开，这时候清理已经执行过了，需要自己移除
+            if (!emitter.isOpen()) {
+                emitters.remove(emitter);
+            }
+        }
+    }
+
+    public void remove(SseEmitter emitter) {
+        if (emitters.remove(emitter)) {
+            emitter.leave(this);
+        }
+    }
+
+    public int size() {
+        return emitters.size();
+    }
+
+    /**
+     * 把事件发送给组中所有的订阅者
+     *
+     * @param event 事件
+     * @return 写出的订阅者个数
+     */
+    public int broadcast(SseEvent event) {
+        Iterator<SseEmitter> iterator = emitters.iterator();
+        if (!iterator.hasNext()) {
+            return 0;
+        }
+        //所有连接使用同一个分配器，随便取一个
+        ByteBufAllocator allocator = iterator.next().getChannel().alloc();
+        ByteBuf buf = event.encode(allocator);
+        int count = 0;
+        try {
+            for (SseEmitter emitter : emitters) {
+                if (emitter.isOpen() && emitter.sendEncoded(buf.retainedDuplicate())) {
+                    count++;
+                }
+            }
+        } finally {
+            buf.release();
+        }
+        return count;
+    }
+
+    /**
+     * 广播只有data的事件
+     *
+     * @param data CharSequence按文本发送，其他类型序列化成JSON
+     * @return 写出的订阅者个数
+     */
+    public int broadcast(Object data) {
+        return broadcast(SseEvent.of(data));
+    }
+}
@@ -0,0 +1,235 @@
+package top.yeonon.lmserver.web.sse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.ScheduledFuture;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.http.LmResponseStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-Sent Events的连接，处理方法通过SseEmitter.open(response)或者SseBroadcaster.subscribe(response)创建，
+ * 然后直接返回即可，连接会一直保持（text/event-stream，HTTP/1.1使用chunked），之后可以在任意线程中发送事件
+ *
+ * 发送事件不会阻塞：客户端读得太慢，已经写出但还没有发送完成的数据超过sseMaxPendingBytes的时候直接断开连接，
+ * 客户端的EventSource会自动重连（带上Last-Event-ID），不会因为一个慢客户端拖住广播的线程。
+ * 一段时间没有发送事件的时候，在该连接的IO线程中定时发送注释行作为心跳，防止被代理或者负载均衡当成空闲连接断开。
+ * 连接断开之后自动退出所有加入的SseBroadcaster，并执行onClose注册的回调
+ * @Author yeonon
+ * @date 2018/12/23 0023 20:30
+ **/
+public class SseEmitter {
+
+    private static final Logger log = Logger.getLogger(SseEmitter.class);
+
+    public static final String EVENT_STREAM_CONTENT = "text/event-stream;charset=utf-8";
+
+    //所有连接共用的心跳，只有一个注释行
+    private static final ByteBuf HEARTBEAT = Unpooled.unreleasableBuffer(
+            Unpooled.directBuffer(3).writeBytes(":\n\n".getBytes(CharsetUtil.US_ASCII)));
+
+    //心跳间隔（毫秒），小于等于0表示不发送心跳
+    private static volatile long heartbeatInterval = 15000;
+    //客户端还没有读走的数据超过这个值就断开连接
+    private static volatile long maxPendingBytes = 1024 * 1024;
+
+    private final LmResponseStream stream;
+    private final Channel channel;
+    private final Set<SseBroadcaster> broadcasters = ConcurrentHashMap.newKeySet();
+    private final ChannelFutureListener closeListener = future -> release();
+    private final ScheduledFuture<?> heartbeat;
+
+    //上一次心跳之后是否发送过数据，发送过就不需要心跳
+    private volatile boolean written;
+    private boolean closed;
+    private List<Runnable> closeCallbacks;
+
+    private SseEmitter(LmResponseStream stream) {
+        this.stream = stream;
+        this.channel = stream.getChannel();
+        long interval = heartbeatInterval;
+        if (interval > 0) {
+            heartbeat = channel.eventLoop().scheduleAtFixedRate(this::heartbeat, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            heartbeat = null;
+        }
+        channel.closeFuture().addListener(closeListener);
+    }
+
+    public static void configure(long heartbeat, long maxPending) {
+        heartbeatInterval = heartbeat;
+        maxPendingBytes = maxPending;
+    }
+
+    /**
+     * 发送text/event-stream的响应头，之后连接一直保持，直到调用complete()或者客户端断开。
+     * 事件流逐条发送，不能压缩（否则每个连接都要单独压缩一遍，代理也可能攒着不发）
+     *
+     * @param response 响应
+     * @return SseEmitter
+     */
+    public static SseEmitter open(LmResponse response) {
+        response.setContentType(EVENT_STREAM_CONTENT)
+                .setHeaders(HttpHeaderNames.CACHE_CONTROL.toString(), HttpHeaderValues.NO_CACHE.toString())
+                //Nginx默认会缓冲响应，关掉
+                .setHeaders("X-Accel-Buffering", "no")
+                .setCompress(false);
+        return new SseEmitter(response.stream());
+    }
+
+    /**
+     * 发送一个事件
+     *
+     * @param event 事件
+     * @return 是否写出，连接已经关闭的时候返回false
+     */
+    public boolean send(SseEvent event) {
+        if (!isOpen()) {
+            return false;
+        }
+        return sendEncoded(event.encode(channel.alloc()));
+    }
+
+    /**
+     * 发送只有data的事件
+     *
+     * @param data CharSequence按文本发送，其他类型序列化成JSON
+     * @return 是否写出，连接已经关闭的时候返回false
+     */
+    public boolean send(Object data) {
+        return send(SseEvent.of(data));
+    }
+
+    /**
+     * 结束事件流，长连接可以继续处理后面的请求
+     */
+    public void complete() {
+        if (!release()) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            log.warn("can't complete the event stream : " + e);
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * 事件流结束（complete或者连接断开）的时候执行回调，已经结束的时候直接执行
+     *
+     * @param callback 回调
+     */
+    public void onClose(Runnable callback) {
+        synchronized (this) {
+            if (!closed) {
+                if (closeCallbacks == null) {
+                    closeCallbacks = new ArrayList<>(1);
+                }
+                closeCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 写出已经编码好的事件，Buffer由这里负责释放。广播的时候传进来的是共享Buffer的retainedDuplicate
+     */
+    boolean sendEncoded(ByteBuf buf) {
+        try {
+            stream.offer(buf);
+        } catch (IOException e) {
+            release();
+            return false;
+        }
+        written = true;
+        long pending = stream.getPendingBytes();
+        if (pending > maxPendingBytes) {
+            log.warn("sse client " + channel.remoteAddress() + " is too slow, " + pending + " bytes pending, disconnect it");
+            release();
+            stream.abort();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 加入广播组，已经结束的时候返回false
+     */
+    boolean join(SseBroadcaster broadcaster) {
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            broadcasters.add(broadcaster);
+        }
+        return true;
+    }
+
+    void leave(SseBroadcaster broadcaster) {
+        broadcasters.remove(broadcaster);
+    }
+
+    private void heartbeat() {
+        if (written) {
+            written = false;
+            return;
+        }
+        sendEncoded(HEARTBEAT.duplicate());
+        written = false;
+    }
+
+    /**
+     * 清理：取消心跳，退出所有广播组，执行回调。只有第一次调用返回true
+     */
+    private boolean release() {
+        List<Runnable> callbacks;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            closed = true;
+            callbacks = closeCallbacks;
+            closeCallbacks = null;
+        }
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        channel.closeFuture().removeListener(closeListener);
+        for (SseBroadcaster broadcaster : broadcasters) {
+            broadcaster.remove(this);
+        }
+        broadcasters.clear();
+        if (callbacks != null) {
+            for (Runnable callback : callbacks) {
+                try {
+                    callback.run();
+                } catch (Exception e) {
+                    log.error("sse close callback failed", e);
+                }
+            }
+        }
+        return true;
+    }
+}
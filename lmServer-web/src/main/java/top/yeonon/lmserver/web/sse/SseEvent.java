@@ -0,0 +1,146 @@
+package top.yeonon.lmserver.web.sse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import top.yeonon.lmserver.web.json.JsonSupport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * 一条Server-Sent Event，编码成text/event-stream格式：
+ * id、event、retry各占一行，data中的每一行对应一个data字段，最后以空行结束
+ *
+ * data是CharSequence的时候按文本发送，其他类型序列化成JSON（JSON不会包含换行，只占一行）
+ * @Author yeonon
+ * @date 2018/12/23 0023 20:10
+ **/
+public class SseEvent {
+
+    private String id;
+    private String name;
+    private Long retry;
+    private String comment;
+    private Object data;
+
+    private SseEvent() {
+    }
+
+    public static SseEvent of(Object data) {
+        SseEvent event = new SseEvent();
+        event.data = data;
+        return event;
+    }
+
+    /**
+     * 只有注释的事件，客户端会忽略，一般用来保持连接
+     */
+    public static SseEvent comment(String comment) {
+        SseEvent event = new SseEvent();
+        event.comment = checkLine("comment", comment);
+        return event;
+    }
+
+    /**
+     * 事件ID，客户端重连的时候会在请求头Last-Event-ID中带上最后收到的ID
+     */
+    public SseEvent id(String id) {
+        this.id = checkLine("id", id);
+        return this;
+    }
+
+    /**
+     * 事件类型，对应客户端EventSource.addEventListener的类型，不设置的时候是message
+     */
+    public SseEvent name(String name) {
+        this.name = checkLine("event", name);
+        return this;
+    }
+
+    /**
+     * 客户端断开之后等待多少毫秒重连
+     */
+    public SseEvent retry(long retry) {
+        this.retry = retry;
+        return this;
+    }
+
+    /**
+     * 编码到新分配的Buffer中
+     *
+     * @param allocator 分配器
+     * @return 编码之后的Buffer，由调用者负责释放
+     */
+    public ByteBuf encode(ByteBufAllocator allocator) {
+        ByteBuf buf = allocator.ioBuffer();
+        boolean success = false;
+        try {
+            if (comment != null) {
+                writeField(buf, "", comment);
+            }
+            if (id != null) {
+                writeField(buf, "id", id);
+            }
+            if (name != null) {
+                writeField(buf, "event", name);
+            }
+            if (retry != null) {
+                writeField(buf, "retry", String.valueOf(retry));
+            }
+            if (data instanceof CharSequence) {
+                writeData(buf, (CharSequence) data);
+            } else if (data != null) {
+                ByteBufUtil.writeAscii(buf, "data:");
+                //ByteBufOutputStream同时也是DataOutput，声明成OutputStream避免重载有歧义
+                OutputStream out = new ByteBufOutputStream(buf);
+                JsonSupport.elementWriterFor(data.getClass()).writeValue(out, data);
+                buf.writeByte('\n');
+            }
+            buf.writeByte('\n');
+            success = true;
+            return buf;
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't serialize sse data", e);
+        } finally {
+            if (!success) {
+                buf.release();
+            }
+        }
+    }
+
+    /**
+     * 文本中的\r\n、\r、\n都是换行，每一行写成一个data字段
+     */
+    private static void writeData(ByteBuf buf, CharSequence data) {
+        int start = 0;
+        int length = data.length();
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                writeField(buf, "data", data.subSequence(start, i));
+                if (c == '\r' && i + 1 < length && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                start = i + 1;
+            }
+        }
+        writeField(buf, "data", data.subSequence(start, length));
+    }
+
+    private static void writeField(ByteBuf buf, String field, CharSequence value) {
+        ByteBufUtil.writeAscii(buf, field);
+        buf.writeByte(':');
+        ByteBufUtil.writeUtf8(buf, value);
+        buf.writeByte('\n');
+    }
+
+    private static String checkLine(String field, String value) {
+        if (value != null && (value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0)) {
+            throw new IllegalArgumentException("sse " + field + " can't contain line breaks : " + value);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,26 @@
+package top.yeonon.lmserver.web.websocket;
+
+import org.apache.log4j.Logger;
+
+/**
+ * WebSocket处理器适配器类，继承的时候只需要实现onMessage，其他回调按需覆盖
+ * @Author yeonon
+ * @date 2018/12/24 0024 10:15
+ **/
+public abstract class AbstractLmWebSocketHandler<T> implements LmWebSocketHandler<T> {
+
+    private static final Logger log = Logger.getLogger(AbstractLmWebSocketHandler.class);
+
+    @Override
+    public void onOpen(WebSocketSession session) {
+    }
+
+    @Override
+    public void onClose(WebSocketSession session) {
+    }
+
+    @Override
+    public void onError(WebSocketSession session, Throwable cause) {
+        log.error("websocket error, path : " + session.getPath(), cause);
+    }
+}
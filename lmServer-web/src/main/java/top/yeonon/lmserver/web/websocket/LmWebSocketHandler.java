@@ -0,0 +1,39 @@
+package top.yeonon.lmserver.web.websocket;
+
+/**
+ * WebSocket处理器，实现类上需要标注@WebSocketMapping，一般继承AbstractLmWebSocketHandler即可。
+ *
+ * 泛型参数是消息的类型：String直接使用文本消息的内容，byte[]使用二进制消息的内容，
+ * 其他类型把消息内容（文本或者二进制）当作JSON反序列化。
+ * 回调都在该连接的IO线程中按顺序执行，不能阻塞，耗时的操作需要自己放到其他线程中，WebSocketSession可以在任意线程中使用
+ * @Author yeonon
+ * @date 2018/12/24 0024 10:10
+ **/
+public interface LmWebSocketHandler<T> {
+
+    /**
+     * 握手完成
+     * @param session 会话
+     */
+    void onOpen(WebSocketSession session);
+
+    /**
+     * 收到一条完整的消息（分片的消息会先聚合）
+     * @param session 会话
+     * @param message 消息
+     */
+    void onMessage(WebSocketSession session, T message);
+
+    /**
+     * 连接关闭，会话已经退出了所有的主题
+     * @param session 会话
+     */
+    void onClose(WebSocketSession session);
+
+    /**
+     * 处理消息出错，例如消息不是合法的JSON，之后连接会被关闭
+     * @param session 会话
+     * @param cause   异常
+     */
+    void onError(WebSocketSession session, Throwable cause);
+}
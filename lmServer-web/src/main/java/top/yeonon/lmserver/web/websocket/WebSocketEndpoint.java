@@ -0,0 +1,167 @@
+package top.yeonon.lmserver.web.websocket;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.util.CharsetUtil;
+import top.yeonon.lmserver.core.ioc.Pair;
+import top.yeonon.lmserver.web.filter.LmFilter;
+import top.yeonon.lmserver.web.http.LmRequest;
+import top.yeonon.lmserver.web.http.LmResponse;
+import top.yeonon.lmserver.web.interceptor.LmInterceptor;
+import top.yeonon.lmserver.web.json.JsonSupport;
+import top.yeonon.lmserver.web.route.PathPattern;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WebSocket端点：路径、处理器以及消息的类型。
+ * 消息类型在启动的时候从处理器的泛型参数中解析出来，JSON消息使用的ObjectReader也在这时候准备好。
+ * 和普通的路由一样，匹配该路径的拦截器和Filter也在启动的时候排好序，握手请求会先经过它们
+ * @Author yeonon
+ * @date 2018/12/24 0024 11:10
+ **/
+public class WebSocketEndpoint {
+
+    private final String path;
+    private final LmWebSocketHandler<Object> handler;
+    private final boolean compress;
+    private final Type messageType;
+    //String和byte[]不需要反序列化，为null
+    private final ObjectReader reader;
+
+    private LmFilter[] filters = new LmFilter[0];
+    private LmInterceptor[] interceptors = new LmInterceptor[0];
+
+    @SuppressWarnings("unchecked")
+    public WebSocketEndpoint(String path, LmWebSocketHandler<?> handler, boolean compress) {
+        this.path = path;
+        this.handler = (LmWebSocketHandler<Object>) handler;
+        this.compress = compress;
+        this.messageType = resolveMessageType(handler.getClass());
+        this.reader = messageType == String.class || messageType == byte[].class
+                ? null : JsonSupport.readerFor(messageType);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public LmWebSocketHandler<Object> getHandler() {
+        return handler;
+    }
+
+    public boolean isCompress() {
+        return compress;
+    }
+
+    public Type getMessageType() {
+        return messageType;
+    }
+
+    /**
+     * 找出匹配该路径的Filter和拦截器并排好序，所有的Filter和拦截器加载完之后调用
+     *
+     * @param filters      所有的Filter以及它们的路径模式
+     * @param interceptors 所有的拦截器以及它们的路径模式
+     */
+    public void buildChain(List<Pair<PathPattern, LmFilter>> filters,
+                           List<Pair<PathPattern, LmInterceptor>> interceptors) {
+        this.filters = match(filters).toArray(new LmFilter[0]);
+        this.interceptors = match(interceptors).toArray(new LmInterceptor[0]);
+    }
+
+    private <T extends Comparable<? super T>> List<T> match(List<Pair<PathPattern, T>> candidates) {
+        List<T> matched = new ArrayList<>();
+        for (Pair<PathPattern, T> candidate : candidates) {
+            if (candidate.first().matches(path) && !matched.contains(candidate.second())) {
+                matched.add(candidate.second());
+            }
+        }
+        Collections.sort(matched);
+        return matched;
+    }
+
+    /**
+     * 对握手请求按顺序执行拦截器的preHandler，一旦有一个拦截器返回false就拒绝握手
+     *
+     * @param request  握手请求
+     * @param response 响应
+     * @return 是否通过所有拦截器
+     */
+    public boolean applyPreHandler(LmRequest request, LmResponse response) {
+        for (LmInterceptor interceptor : interceptors) {
+            if (!interceptor.preHandler(request, response)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 对握手请求按顺序执行Filter
+     *
+     * @param request 握手请求
+     */
+    public void applyFilters(LmRequest request) {
+        for (LmFilter filter : filters) {
+            filter.doFilter(request);
+        }
+    }
+
+    /**
+     * 把一条完整的消息（文本或者二进制）转换成处理器需要的类型
+     */
+    Object decode(WebSocketFrame frame) throws IOException {
+        if (messageType == String.class) {
+            return frame.content().toString(CharsetUtil.UTF_8);
+        }
+        if (messageType == byte[].class) {
+            return ByteBufUtil.getBytes(frame.content());
+        }
+        //ByteBufInputStream同时也是DataInput，声明成InputStream避免重载有歧义
+        InputStream in = new ByteBufInputStream(frame.content());
+        return reader.readValue(in);
+    }
+
+    /**
+     * 从类的继承关系中找到LmWebSocketHandler的泛型参数，找不到（例如没有写泛型参数）的时候当作String
+     */
+    private static Type resolveMessageType(Class<?> clz) {
+        for (Class<?> c = clz; c != null && c != Object.class; c = c.getSuperclass()) {
+            Type type = messageTypeOf(c.getGenericSuperclass());
+            if (type != null) {
+                return type;
+            }
+            for (Type itf : c.getGenericInterfaces()) {
+                type = messageTypeOf(itf);
+                if (type != null) {
+                    return type;
+                }
+            }
+        }
+        return String.class;
+    }
+
+    private static Type messageTypeOf(Type type) {
+        if (!(type instanceof ParameterizedType)) {
+            return null;
+        }
+        ParameterizedType parameterized = (ParameterizedType) type;
+        Type raw = parameterized.getRawType();
+        if (!(raw instanceof Class) || !LmWebSocketHandler.class.isAssignableFrom((Class<?>) raw)
+                || parameterized.getActualTypeArguments().length != 1) {
+            return null;
+        }
+        Type argument = parameterized.getActualTypeArguments()[0];
+        //类型变量说明泛型参数还要到子类中确定，这里解析不出来
+        return argument instanceof Class || argument instanceof ParameterizedType ? argument : null;
+    }
+}
@@ -0,0 +1,88 @@
+package top.yeonon.lmserver.web.websocket;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
+import org.apache.log4j.Logger;
+
+/**
+ * WebSocket连接上最后的Handler，把握手完成、消息、关闭和异常交给端点的处理器。
+ * Ping、Pong、Close帧由WebSocketServerProtocolHandler处理，分片的消息由WebSocketFrameAggregator聚合，这里只会收到完整的文本和二进制消息
+ * @Author yeonon
+ * @date 2018/12/24 0024 11:30
+ **/
+public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
+
+    private static final Logger log = Logger.getLogger(WebSocketFrameHandler.class);
+
+    //1007：消息的内容和类型不符
+    private static final int INVALID_PAYLOAD = 1007;
+
+    private final WebSocketEndpoint endpoint;
+    private final WebSocketSession session;
+    //握手完成之后才会回调onOpen，没有open过的连接关闭的时候也不回调onClose
+    private boolean opened;
+
+    /**
+     * @param endpoint 端点
+     * @param ctx      握手请求所在的ChannelHandlerContext
+     * @param request  握手请求
+     */
+    public WebSocketFrameHandler(WebSocketEndpoint endpoint, ChannelHandlerContext ctx, FullHttpRequest request) {
+        this.endpoint = endpoint;
+        this.session = new WebSocketSession(ctx.channel(), endpoint.getPath(), request);
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            opened = true;
+            endpoint.getHandler().onOpen(session);
+        }
+        ctx.fireUserEventTriggered(evt);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
+        if (!(frame instanceof TextWebSocketFrame) && !(frame instanceof BinaryWebSocketFrame)) {
+            return;
+        }
+        Object message;
+        try {
+            message = endpoint.decode(frame);
+        } catch (Exception e) {
+            endpoint.getHandler().onError(session, e);
+            session.close(INVALID_PAYLOAD, "invalid message");
+            return;
+        }
+        endpoint.getHandler().onMessage(session, message);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        session.release();
+        if (opened) {
+            opened = false;
+            endpoint.getHandler().onClose(session);
+        }
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (opened) {
+            try {
+                endpoint.getHandler().onError(session, cause);
+            } catch (Exception e) {
+                log.error("websocket onError failed, path : " + endpoint.getPath(), e);
+            }
+        } else {
+            log.warn("websocket handshake failed, path : " + endpoint.getPath() + " : " + cause);
+        }
+        ctx.close();
+    }
+}
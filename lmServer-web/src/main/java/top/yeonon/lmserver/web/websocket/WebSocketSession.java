@@ -0,0 +1,234 @@
+package top.yeonon.lmserver.web.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.apache.log4j.Logger;
+import top.yeonon.lmserver.web.json.JsonSupport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket会话，握手完成之后创建，可以在任意线程中发送消息。
+ *
+ * 发送不会阻塞：客户端读得太慢，已经写出但还没有发送完成的数据超过webSocketMaxPendingBytes的时候直接断开连接，
+ * 不会因为一个慢客户端拖住广播的线程，也不会无限制地占用内存
+ * @Author yeonon
+ * @date 2018/12/24 0024 10:30
+ **/
+public class WebSocketSession {
+
+    private static final Logger log = Logger.getLogger(WebSocketSession.class);
+
+    //客户端还没有读走的数据超过这个值就断开连接
+    private static volatile long maxPendingBytes = 1024 * 1024;
+
+    private final Channel channel;
+    private final String path;
+    private final Map<String, List<String>> params;
+    private final HttpHeaders headers;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final Set<WebSocketTopic> topics = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pending = new AtomicLong();
+
+    private volatile boolean closed;
+
+    /**
+     * @param channel 连接
+     * @param path    握手请求的路径
+     * @param request 握手请求，只保留Query参数和请求头
+     */
+    WebSocketSession(Channel channel, String path, FullHttpRequest request) {
+        this.channel = channel;
+        this.path = path;
+        this.params = new QueryStringDecoder(request.uri()).parameters();
+        this.headers = request.headers().copy();
+    }
+
+    public static void configure(long maxPending) {
+        maxPendingBytes = maxPending;
+    }
+
+    public String getId() {
+        return channel.id().asShortText();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * 握手请求的Query参数，有多个值的时候返回第一个
+     */
+    public String getParam(String name) {
+        List<String> values = params.get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * 握手请求的请求头
+     */
+    public String getHeader(CharSequence name) {
+        return headers.get(name);
+    }
+
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    public void setAttribute(String name, Object value) {
+        if (value == null) {
+            attributes.remove(name);
+        } else {
+            attributes.put(name, value);
+        }
+    }
+
+    public Channel getChannel() {
+        return channel;
+    }
+
+    public boolean isOpen() {
+        return !closed && channel.isActive();
+    }
+
+    /**
+     * 发送文本消息，CharSequence直接发送，其他类型序列化成JSON
+     */
+    public ChannelFuture send(Object message) {
+        return sendFrame(new TextWebSocketFrame(encode(channel.alloc(), message)));
+    }
+
+    /**
+     * 发送二进制消息，调用之后Buffer由框架负责释放
+     */
+    public ChannelFuture sendBinary(ByteBuf data) {
+        return sendFrame(new BinaryWebSocketFrame(data));
+    }
+
+    public ChannelFuture sendBinary(byte[] data) {
+        return sendBinary(Unpooled.wrappedBuffer(data));
+    }
+
+    /**
+     * 加入主题
+     */
+    public void join(String topic) {
+        WebSocketTopic.of(topic).join(this);
+    }
+
+    /**
+     * 退出主题
+     */
+    public void leave(String topic) {
+        WebSocketTopic.of(topic).leave(this);
+    }
+
+    /**
+     * 正常关闭（1000）
+     */
+    public ChannelFuture close() {
+        return close(1000, null);
+    }
+
+    /**
+     * 发送Close帧之后关闭连接
+     *
+     * @param statusCode 关闭状态码
+     * @param reason     原因，可以为null
+     * @return ChannelFuture
+     */
+    public ChannelFuture close(int statusCode, String reason) {
+        if (!channel.isActive()) {
+            return channel.closeFuture();
+        }
+        return channel.writeAndFlush(new CloseWebSocketFrame(statusCode, reason))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    /**
+     * 写出一帧并检查积压，Frame由这里负责释放。广播的时候传进来的是共享Buffer的retainedDuplicate
+     */
+    ChannelFuture sendFrame(WebSocketFrame frame) {
+        if (!isOpen()) {
+            frame.release();
+            return channel.newFailedFuture(new ClosedChannelException());
+        }
+        int size = frame.content().readableBytes();
+        long total = pending.addAndGet(size);
+        ChannelFuture future = channel.writeAndFlush(frame);
+        future.addListener(f -> pending.addAndGet(-size));
+        if (total > maxPendingBytes) {
+            log.warn("websocket client " + channel.remoteAddress() + " is too slow, " + total + " bytes pending, disconnect it");
+            channel.close();
+        }
+        return future;
+    }
+
+    boolean join(WebSocketTopic topic) {
+        if (closed) {
+            return false;
+        }
+        topics.add(topic);
+        return true;
+    }
+
+    void leave(WebSocketTopic topic) {
+        topics.remove(topic);
+    }
+
+    /**
+     * 连接关闭之后清理：退出所有的主题
+     */
+    void release() {
+        closed = true;
+        for (WebSocketTopic topic : topics) {
+            topic.leave(this);
+        }
+        topics.clear();
+    }
+
+    /**
+     * 文本消息的内容，CharSequence直接编码成UTF-8，其他类型序列化成JSON
+     */
+    static ByteBuf encode(ByteBufAllocator allocator, Object message) {
+        if (message instanceof CharSequence) {
+            return ByteBufUtil.writeUtf8(allocator, (CharSequence) message);
+        }
+        ByteBuf buf = allocator.ioBuffer();
+        boolean success = false;
+        try {
+            //ByteBufOutputStream同时也是DataOutput，声明成OutputStream避免重载有歧义
+            OutputStream out = new ByteBufOutputStream(buf);
+            JsonSupport.elementWriterFor(message.getClass()).writeValue(out, message);
+            success = true;
+            return buf;
+        } catch (IOException e) {
+            throw new UncheckedIOException("can't serialize websocket message", e);
+        } finally {
+            if (!success) {
+                buf.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package top.yeonon.lmserver.web.websocket;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 主题，用来向一组会话广播消息：消息只序列化一次到共享的Buffer中，每个会话写出的是它的retainedDuplicate，
+ * 订阅的会话再多也只有一份数据（开启了压缩的会话需要各自压缩）。
+ *
+ * 会话断开之后自动退出所有的主题，可以在任意线程中广播
+ * @Author yeonon
+ * @date 2018/12/24 0024 10:50
+ **/
+public final class WebSocketTopic {
+
+    private static final ConcurrentMap<String, WebSocketTopic> topics = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final Set<WebSocketSession> sessions = ConcurrentHashMap.newKeySet();
+
+    private WebSocketTopic(String name) {
+        this.name = name;
+    }
+
+    /**
+     * 获取主题，不存在的时候创建
+     *
+     * @param name 主题名
+     * @return 主题
+     */
+    public static WebSocketTopic of(String name) {
+        return topics.computeIfAbsent(name, WebSocketTopic::new);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public void join(WebSocketSession session) {
+        if (session.join(this)) {
+            sessions.add(session);
+            //join和add之间会话可能刚好关闭，这时候清理已经执行过了，需要自己移除
+            if (!session.isOpen()) {
+                leave(session);
+            }
+        }
+    }
+
+    public void leave(WebSocketSession session) {
+        if (sessions.remove(session)) {
+            session.leave(this);
+        }
+    }
+
+    /**
+     * 广播文本消息，CharSequence直接发送，其他类型序列化成JSON
+     *
+     * @param message 消息
+     * @return 写出的会话个数
+     */
+    public int publish(Object message) {
+        Iterator<WebSocketSession> iterator = sessions.iterator();
+        if (!iterator.hasNext()) {
+            return 0;
+        }
+        //所有连接使用同一个分配器，随便取一个
+        ByteBufAllocator allocator = iterator.next().getChannel().alloc();
+        return publish(new TextWebSocketFrame(WebSocketSession.encode(allocator, message)));
+    }
+
+    /**
+     * 广播二进制消息，调用之后Buffer由框架负责释放
+     *
+     * @param data 数据
+     * @return 写出的会话个数
+     */
+    public int publishBinary(ByteBuf data) {
+        return publish(new BinaryWebSocketFrame(data));
+    }
+
+    public int publishBinary(byte[] data) {
+        return publishBinary(Unpooled.wrappedBuffer(data));
+    }
+
+    private int publish(WebSocketFrame frame) {
+        int count = 0;
+        try {
+            for (WebSocketSession session : sessions) {
+                if (session.isOpen()) {
+                    session.sendFrame(frame.retainedDuplicate());
+                    count++;
+                }
+            }
+        } finally {
+            frame.release();
+        }
+        return count;
+    }
+}